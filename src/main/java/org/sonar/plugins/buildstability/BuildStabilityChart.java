@@ -34,7 +34,9 @@ import java.awt.Font;
 import java.awt.Paint;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Evgeny Mandrikov
@@ -89,8 +91,8 @@ public class BuildStabilityChart extends AbstractChart {
 
     configureDomainAxis(plot);
     configureRangeAxis(plot, "s", font);
-    configureRenderer(plot, params.getValue(PARAM_COLORS, "", true));
     configureValues(dataset, params.getValue(PARAM_VALUES, "", true));
+    configureRenderer(plot, dataset, params.getValue(PARAM_COLORS, "", true));
 
     plot.setDataset(dataset);
 
@@ -110,14 +112,24 @@ public class BuildStabilityChart extends AbstractChart {
     }
   }
 
-  private void configureRenderer(CategoryPlot plot, String colors) {
+  /**
+   * Colors are matched to bars by build number: builds without a known duration have a result but no bar.
+   */
+  private void configureRenderer(CategoryPlot plot, DefaultCategoryDataset dataset, String colors) {
     ColoredBarRenderer renderer = new ColoredBarRenderer();
 
     String[] pairs = StringUtils.split(colors, ";");
-    List<Paint> paints = new ArrayList<Paint>();
+    Map<String, Paint> paintsByKey = new HashMap<String, Paint>();
     for (String pair : pairs) {
       String[] keyValue = StringUtils.split(pair, "=");
-      paints.add("r".equals(keyValue[1]) ? Color.RED : Color.GREEN);
+      paintsByKey.put(keyValue[0], "r".equals(keyValue[1]) ? Color.RED : Color.GREEN);
+    }
+    List<Paint> paints = new ArrayList<Paint>();
+    if (!paintsByKey.isEmpty()) {
+      for (Object key : dataset.getColumnKeys()) {
+        Paint paint = paintsByKey.get(key.toString());
+        paints.add(paint == null ? Color.GRAY : paint);
+      }
     }
 
     renderer.setColors(paints.toArray(new Paint[paints.size()]));
@@ -95,6 +95,138 @@ public class BuildStabilityMetrics implements Metrics {
     .setDomain(DOMAIN_BUILD)
     .create();
 
+  /**
+   * Median duration of successful builds.
+   */
+  public static final Metric<Integer> DURATION_P50 = new Metric.Builder("build_duration_p50", "Duration p50",
+    Metric.ValueType.MILLISEC)
+    .setDescription("50th percentile of successful build durations")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * 90th percentile of the duration of successful builds.
+   */
+  public static final Metric<Integer> DURATION_P90 = new Metric.Builder("build_duration_p90", "Duration p90",
+    Metric.ValueType.MILLISEC)
+    .setDescription("90th percentile of successful build durations")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * 95th percentile of the duration of successful builds.
+   */
+  public static final Metric<Integer> DURATION_P95 = new Metric.Builder("build_duration_p95", "Duration p95",
+    Metric.ValueType.MILLISEC)
+    .setDescription("95th percentile of successful build durations")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * 99th percentile of the duration of successful builds.
+   */
+  public static final Metric<Integer> DURATION_P99 = new Metric.Builder("build_duration_p99", "Duration p99",
+    Metric.ValueType.MILLISEC)
+    .setDescription("99th percentile of successful build durations")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * Exponentially weighted moving average of the duration of successful builds.
+   */
+  public static final Metric<Integer> DURATION_EWMA = new Metric.Builder("build_duration_ewma", "Recent average duration",
+    Metric.ValueType.MILLISEC)
+    .setDescription("Exponentially weighted moving average of successful build durations")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * Number of successful builds whose duration was measured, only saved when durations are estimated from a sample.
+   */
+  public static final Metric<Integer> DURATION_SAMPLE_SIZE = new Metric.Builder("build_duration_sample_size", "Sampled durations",
+    Metric.ValueType.INT)
+    .setDescription("Number of successful builds whose duration was measured in approximate mode")
+    .setDirection(Metric.DIRECTION_NONE)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * Lower bound of the 95% confidence interval of the average duration, when estimated from a sample.
+   */
+  public static final Metric<Integer> AVG_DURATION_LOWER = new Metric.Builder("build_average_duration_lower", "Average Duration lower bound",
+    Metric.ValueType.MILLISEC)
+    .setDescription("Lower bound of the 95% confidence interval of the sampled average duration")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * Upper bound of the 95% confidence interval of the average duration, when estimated from a sample.
+   */
+  public static final Metric<Integer> AVG_DURATION_UPPER = new Metric.Builder("build_average_duration_upper", "Average Duration upper bound",
+    Metric.ValueType.MILLISEC)
+    .setDescription("Upper bound of the 95% confidence interval of the sampled average duration")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * Lower bound of the 95% confidence interval of the median duration, when estimated from a sample.
+   */
+  public static final Metric<Integer> DURATION_P50_LOWER = new Metric.Builder("build_duration_p50_lower", "Duration p50 lower bound",
+    Metric.ValueType.MILLISEC)
+    .setDescription("Lower bound of the 95% confidence interval of the sampled 50th percentile of durations")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * Upper bound of the 95% confidence interval of the median duration, when estimated from a sample.
+   */
+  public static final Metric<Integer> DURATION_P50_UPPER = new Metric.Builder("build_duration_p50_upper", "Duration p50 upper bound",
+    Metric.ValueType.MILLISEC)
+    .setDescription("Upper bound of the 95% confidence interval of the sampled 50th percentile of durations")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * Lower bound of the 95% confidence interval of the 90th percentile of durations, when estimated from a sample.
+   */
+  public static final Metric<Integer> DURATION_P90_LOWER = new Metric.Builder("build_duration_p90_lower", "Duration p90 lower bound",
+    Metric.ValueType.MILLISEC)
+    .setDescription("Lower bound of the 95% confidence interval of the sampled 90th percentile of durations")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * Upper bound of the 95% confidence interval of the 90th percentile of durations, when estimated from a sample.
+   */
+  public static final Metric<Integer> DURATION_P90_UPPER = new Metric.Builder("build_duration_p90_upper", "Duration p90 upper bound",
+    Metric.ValueType.MILLISEC)
+    .setDescription("Upper bound of the 95% confidence interval of the sampled 90th percentile of durations")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
   /**
    * Average time to fix a failure.
    */
@@ -119,6 +251,50 @@ public class BuildStabilityMetrics implements Metrics {
     .setDomain(DOMAIN_BUILD)
     .create();
 
+  /**
+   * Median time to fix a failure.
+   */
+  public static final Metric<Integer> TIME_TO_FIX_P50 = new Metric.Builder("build_time_to_fix_failure_p50", "Time to fix a failure p50",
+    Metric.ValueType.MILLISEC)
+    .setDescription("50th percentile of the time to fix a failure")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * 90th percentile of the time to fix a failure.
+   */
+  public static final Metric<Integer> TIME_TO_FIX_P90 = new Metric.Builder("build_time_to_fix_failure_p90", "Time to fix a failure p90",
+    Metric.ValueType.MILLISEC)
+    .setDescription("90th percentile of the time to fix a failure")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * 95th percentile of the time to fix a failure.
+   */
+  public static final Metric<Integer> TIME_TO_FIX_P95 = new Metric.Builder("build_time_to_fix_failure_p95", "Time to fix a failure p95",
+    Metric.ValueType.MILLISEC)
+    .setDescription("95th percentile of the time to fix a failure")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * 99th percentile of the time to fix a failure.
+   */
+  public static final Metric<Integer> TIME_TO_FIX_P99 = new Metric.Builder("build_time_to_fix_failure_p99", "Time to fix a failure p99",
+    Metric.ValueType.MILLISEC)
+    .setDescription("99th percentile of the time to fix a failure")
+    .setDirection(Metric.DIRECTION_WORST)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
   /**
    * Average number of builds between fixes.
    */
@@ -145,6 +321,47 @@ public class BuildStabilityMetrics implements Metrics {
     .setDomain(DOMAIN_BUILD)
     .create();
 
+  /**
+   * Success rate over each configured window, keyed by number of days.
+   */
+  public static final Metric<String> WINDOW_SUCCESS_RATES = new Metric.Builder("build_window_success_rates", "Success Rate by window", Metric.ValueType.DATA)
+    .setDescription("Success rate by number of days")
+    .setDirection(Metric.DIRECTION_NONE)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * Average duration of successful builds over each configured window, keyed by number of days.
+   */
+  public static final Metric<String> WINDOW_AVG_DURATIONS = new Metric.Builder("build_window_average_durations", "Average Duration by window", Metric.ValueType.DATA)
+    .setDescription("Average duration by number of days")
+    .setDirection(Metric.DIRECTION_NONE)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * Average time to fix a failure over each configured window, keyed by number of days.
+   */
+  public static final Metric<String> WINDOW_AVG_TIMES_TO_FIX = new Metric.Builder("build_window_average_times_to_fix_failure", "Average time to fix a failure by window", Metric.ValueType.DATA)
+    .setDescription("Average time to fix a failure by number of days")
+    .setDirection(Metric.DIRECTION_NONE)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
+  /**
+   * Share of the builds of the analysed period taken into account, less than 100% when fetching them timed out.
+   */
+  public static final Metric<Double> DATA_COVERAGE = new Metric.Builder("build_data_coverage", "Build data coverage (%)",
+    Metric.ValueType.PERCENT)
+    .setDescription("Share of the builds of the analysed period taken into account")
+    .setDirection(Metric.DIRECTION_BETTER)
+    .setQualitative(false)
+    .setDomain(DOMAIN_BUILD)
+    .create();
+
   @Override
   public List<Metric> getMetrics() {
     return Arrays.<Metric>asList(
@@ -155,12 +372,34 @@ public class BuildStabilityMetrics implements Metrics {
       AVG_DURATION,
       LONGEST_DURATION,
       SHORTEST_DURATION,
+      DURATION_P50,
+      DURATION_P90,
+      DURATION_P95,
+      DURATION_P99,
+      DURATION_EWMA,
+      DURATION_SAMPLE_SIZE,
+      AVG_DURATION_LOWER,
+      AVG_DURATION_UPPER,
+      DURATION_P50_LOWER,
+      DURATION_P50_UPPER,
+      DURATION_P90_LOWER,
+      DURATION_P90_UPPER,
 
       AVG_TIME_TO_FIX,
       LONGEST_TIME_TO_FIX,
+      TIME_TO_FIX_P50,
+      TIME_TO_FIX_P90,
+      TIME_TO_FIX_P95,
+      TIME_TO_FIX_P99,
       AVG_BUILDS_TO_FIX,
 
       DURATIONS,
-      RESULTS);
+      RESULTS,
+
+      WINDOW_SUCCESS_RATES,
+      WINDOW_AVG_DURATIONS,
+      WINDOW_AVG_TIMES_TO_FIX,
+
+      DATA_COVERAGE);
   }
 }
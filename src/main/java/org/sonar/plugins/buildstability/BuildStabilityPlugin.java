@@ -44,7 +44,8 @@ import java.util.List;
     defaultValue = "",
     name = "Continuous Integration Server URL",
     description = "URL of the project on the CI server. Examples: <ul>" +
-      "<li>\"TeamCity:http://teamcity/viewType.html?buildTypeId=SonarBuild\"</li>",
+      "<li>\"TeamCity:http://teamcity/viewType.html?buildTypeId=SonarBuild\"</li>" +
+      "<li>\"Jenkins:http://jenkins/job/SonarBuild\"</li>",
     global = false,
     project = true,
     module = false
@@ -67,6 +68,16 @@ import java.util.List;
     project = true,
     module = false
   ),
+  @Property(
+    key = BuildStabilitySensor.TOKEN_PROPERTY,
+    defaultValue = "",
+    name = "Access token",
+    description = "Access token to connect with Continuous Integration Server, used instead of the username and password. "
+      + "Jenkins API tokens are used instead of the password only.",
+    global = true,
+    project = true,
+    module = false
+  ),
   @Property(
     key = BuildStabilitySensor.USE_JSECURITYCHECK_PROPERTY,
     defaultValue = BuildStabilitySensor.USE_JSECURITYCHECK_DEFAULT_VALUE + "",
@@ -75,6 +86,88 @@ import java.util.List;
     global = true,
     project = true,
     module = false
+  ),
+  @Property(
+    key = BuildStabilitySensor.MAX_CONCURRENT_REQUESTS_PROPERTY,
+    defaultValue = BuildStabilitySensor.MAX_CONCURRENT_REQUESTS_DEFAULT_VALUE + "",
+    name = "Maximum concurrent requests",
+    description = "Maximum number of build detail requests sent to the CI Server at the same time. "
+      + "Fewer requests are sent when the server slows down or throttles.",
+    global = true,
+    project = true,
+    module = false
+  ),
+  @Property(
+    key = BuildStabilitySensor.CACHE_DIR_PROPERTY,
+    defaultValue = "",
+    name = "Build cache directory",
+    description = "Directory where finished builds are cached between analyses, so that only new builds are downloaded. "
+      + "Leave blank to use build-stability in the SonarQube user home.",
+    global = true,
+    project = false,
+    module = false
+  ),
+  @Property(
+    key = BuildStabilitySensor.TIMEOUT_PROPERTY,
+    defaultValue = BuildStabilitySensor.TIMEOUT_DEFAULT_VALUE + "",
+    name = "Timeout",
+    description = "Maximum number of seconds spent fetching builds from the CI Server. When it is over, measures are "
+      + "computed from the builds fetched so far. 0 means no limit.",
+    global = true,
+    project = true,
+    module = false
+  ),
+  @Property(
+    key = BuildStabilitySensor.WINDOWS_PROPERTY,
+    defaultValue = "",
+    name = "Windows",
+    description = "Comma-separated numbers of days, for example \"7,30\", over which success rate, average duration "
+      + "and average time to fix are also measured. Windows must not be larger than the number of days to analyze.",
+    global = true,
+    project = true,
+    module = false
+  ),
+  @Property(
+    key = BuildStabilitySensor.SHARED_HTTP_POOL_PROPERTY,
+    defaultValue = BuildStabilitySensor.SHARED_HTTP_POOL_DEFAULT_VALUE + "",
+    name = "Shared HTTP thread pool",
+    description = "Set this property to true to send build requests from a pool of threads shared by all the analyses "
+      + "of the JVM, which bounds the number of requests sent at once to CI servers.",
+    global = true,
+    project = true,
+    module = false
+  ),
+  @Property(
+    key = BuildStabilitySensor.JSON_PROPERTY,
+    defaultValue = BuildStabilitySensor.JSON_DEFAULT_VALUE + "",
+    name = "Prefer JSON",
+    description = "Ask the CI Server for JSON responses, which are smaller and quicker to parse. "
+      + "Servers which only support XML keep working.",
+    global = true,
+    project = true,
+    module = false
+  ),
+  @Property(
+    key = BuildStabilitySensor.DETAIL_SAMPLE_PROPERTY,
+    defaultValue = BuildStabilitySensor.DETAIL_SAMPLE_DEFAULT_VALUE + "",
+    name = "Detail sample",
+    description = "Share of successful builds, between 0 and 1, whose details are fetched when the CI Server only lists "
+      + "build numbers and statuses. Success rates and times to fix stay exact, durations are measured on the sample. "
+      + "1 fetches the details of every build.",
+    global = true,
+    project = true,
+    module = false
+  ),
+  @Property(
+    key = BuildStabilitySensor.APPROXIMATE_SAMPLE_SIZE_PROPERTY,
+    defaultValue = BuildStabilitySensor.APPROXIMATE_SAMPLE_SIZE_DEFAULT_VALUE + "",
+    name = "Approximate sample size",
+    description = "Number of successful builds whose details are fetched in approximate mode, whatever the number of "
+      + "builds. Counts and success rates stay exact, durations are estimated from a uniform sample and saved with "
+      + "their 95% confidence bounds, times to fix and windows use interpolated dates. 0 disables approximate mode.",
+    global = true,
+    project = true,
+    module = false
   )
 })
 public class BuildStabilityPlugin extends SonarPlugin {
@@ -19,24 +19,38 @@
  */
 package org.sonar.plugins.buildstability;
 
+import com.google.common.primitives.Ints;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.Sensor;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.config.Settings;
 import org.sonar.api.measures.Measure;
-import org.sonar.api.measures.PropertiesBuilder;
 import org.sonar.api.resources.Project;
+import org.sonar.plugins.buildstability.analysis.BuildAnalyser;
+import org.sonar.plugins.buildstability.ci.BuildHistoryCache;
 import org.sonar.plugins.buildstability.ci.CiConnector;
 import org.sonar.plugins.buildstability.ci.CiFactory;
+import org.sonar.plugins.buildstability.ci.Deadline;
+import org.sonar.plugins.buildstability.ci.DetailPlanner;
 import org.sonar.plugins.buildstability.ci.MavenCiConfiguration;
+import org.sonar.plugins.buildstability.ci.ReservoirPlanner;
+import org.sonar.plugins.buildstability.ci.ResponseCache;
+import org.sonar.plugins.buildstability.ci.SharedBuildCache;
+import org.sonar.plugins.buildstability.ci.SharedHttpClient;
+import org.sonar.plugins.buildstability.ci.SharedPoolHttpTransport;
 import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
 
 import javax.annotation.Nullable;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -50,9 +64,24 @@ public class BuildStabilitySensor implements Sensor {
   public static final int DAYS_DEFAULT_VALUE = 30;
   public static final String USERNAME_PROPERTY = "sonar.build-stability.username.secured";
   public static final String PASSWORD_PROPERTY = "sonar.build-stability.password.secured";
+  public static final String TOKEN_PROPERTY = "sonar.build-stability.token.secured";
   public static final String USE_JSECURITYCHECK_PROPERTY = "sonar.build-stability.use_jsecuritycheck";
   public static final boolean USE_JSECURITYCHECK_DEFAULT_VALUE = false;
   public static final String CI_URL_PROPERTY = "sonar.build-stability.url";
+  public static final String MAX_CONCURRENT_REQUESTS_PROPERTY = "sonar.build-stability.max_concurrent_requests";
+  public static final int MAX_CONCURRENT_REQUESTS_DEFAULT_VALUE = 4;
+  public static final String CACHE_DIR_PROPERTY = "sonar.build-stability.cache_dir";
+  public static final String WINDOWS_PROPERTY = "sonar.build-stability.windows";
+  public static final String TIMEOUT_PROPERTY = "sonar.build-stability.timeout";
+  public static final int TIMEOUT_DEFAULT_VALUE = 300;
+  public static final String SHARED_HTTP_POOL_PROPERTY = "sonar.build-stability.shared_http_pool";
+  public static final boolean SHARED_HTTP_POOL_DEFAULT_VALUE = false;
+  public static final String JSON_PROPERTY = "sonar.build-stability.json";
+  public static final boolean JSON_DEFAULT_VALUE = true;
+  public static final String DETAIL_SAMPLE_PROPERTY = "sonar.build-stability.detail_sample";
+  public static final double DETAIL_SAMPLE_DEFAULT_VALUE = 1;
+  public static final String APPROXIMATE_SAMPLE_SIZE_PROPERTY = "sonar.build-stability.approximate_sample_size";
+  public static final int APPROXIMATE_SAMPLE_SIZE_DEFAULT_VALUE = 0;
 
   private final Settings settings;
   private final MavenCiConfiguration mavenCiConfiguration;
@@ -88,117 +117,147 @@ public class BuildStabilitySensor implements Sensor {
     return null;
   }
 
+  /**
+   * The project working directory is wiped at each analysis, so builds are cached in the SonarQube user home
+   * unless another directory is configured.
+   */
+  protected File getCacheDirectory() {
+    String path = settings.getString(CACHE_DIR_PROPERTY);
+    if (StringUtils.isNotEmpty(path)) {
+      return new File(path);
+    }
+    String userHome = settings.getString("sonar.userHome");
+    File sonarHome = StringUtils.isNotEmpty(userHome) ? new File(userHome) : new File(System.getProperty("user.home"), ".sonar");
+    return new File(sonarHome, "build-stability");
+  }
+
+  /**
+   * Share of successful builds whose details are fetched from servers which only list build numbers and statuses,
+   * 1 to fetch the details of every build.
+   */
+  protected double getDetailSample() {
+    String value = settings.getString(DETAIL_SAMPLE_PROPERTY);
+    if (StringUtils.isBlank(value)) {
+      return DETAIL_SAMPLE_DEFAULT_VALUE;
+    }
+    try {
+      double sample = Double.parseDouble(value.trim());
+      if (sample > 0 && sample <= 1) {
+        return sample;
+      }
+    } catch (NumberFormatException e) {
+      // Warned below
+    }
+    LOG.warn("Ignoring detail sample of {}, it must be greater than 0 and at most 1", value);
+    return DETAIL_SAMPLE_DEFAULT_VALUE;
+  }
+
+  /**
+   * @return null when the details of every build are fetched
+   */
+  @Nullable
+  protected DetailPlanner createDetailPlanner(long now) {
+    int sampleSize = settings.getInt(APPROXIMATE_SAMPLE_SIZE_PROPERTY);
+    if (sampleSize > 0) {
+      LOG.info("Approximate mode: durations estimated from {} builds", sampleSize);
+      return new ReservoirPlanner(sampleSize);
+    }
+    double sample = getDetailSample();
+    if (sample >= 1) {
+      return null;
+    }
+    int[] windows = getWindows();
+    long[] windowStarts = new long[windows.length];
+    for (int i = 0; i < windows.length; i++) {
+      windowStarts[i] = now - windows[i] * DateUtils.MILLIS_PER_DAY;
+    }
+    return new DetailPlanner(sample, windowStarts);
+  }
+
+  /**
+   * Windows measured besides the whole analysed period, smallest first and each once. They all come from the builds
+   * of the last {@link #DAYS_PROPERTY} days, so larger windows are ignored.
+   */
+  protected int[] getWindows() {
+    int days = settings.getInt(DAYS_PROPERTY);
+    SortedSet<Integer> windows = new TreeSet<Integer>();
+    for (String value : settings.getStringArray(WINDOWS_PROPERTY)) {
+      int window;
+      try {
+        window = Integer.parseInt(value.trim());
+      } catch (NumberFormatException e) {
+        LOG.warn("Ignoring invalid window: {}", value);
+        continue;
+      }
+      if (window <= 0 || window > days) {
+        LOG.warn("Ignoring window of {} days, it must be between 1 and the {} analysed days", window, days);
+      } else {
+        windows.add(window);
+      }
+    }
+    return Ints.toArray(windows);
+  }
+
   @Override
   public void analyse(Project project, SensorContext context) {
     String ciUrl = getCiUrl(project);
     LOG.info("CI URL: {}", ciUrl);
     String username = settings.getString(USERNAME_PROPERTY);
     String password = settings.getString(PASSWORD_PROPERTY);
+    String token = settings.getString(TOKEN_PROPERTY);
     boolean useJSecurityCheck = settings.getBoolean(USE_JSECURITYCHECK_PROPERTY);
-    List<Build> builds;
+    BuildSeries builds;
     try {
-      CiConnector connector = CiFactory.create(ciUrl, username, password, useJSecurityCheck);
+      CiConnector connector = CiFactory.create(CiFactory.getSystem(ciUrl), CiFactory.getUrl(ciUrl), username, password, token,
+        useJSecurityCheck);
       if (connector == null) {
         LOG.warn("Unknown CiManagement system or incorrect URL: {}", ciUrl);
         return;
       }
+      connector.setMaxConcurrentRequests(settings.getInt(MAX_CONCURRENT_REQUESTS_PROPERTY));
+      connector.setDeadline(Deadline.after(settings.getInt(TIMEOUT_PROPERTY), TimeUnit.SECONDS));
+      connector.setAcceptJson(settings.getBoolean(JSON_PROPERTY));
+      connector.setDetailPlanner(createDetailPlanner(System.currentTimeMillis()));
+      if (settings.getBoolean(SHARED_HTTP_POOL_PROPERTY)) {
+        connector.setTransport(new SharedPoolHttpTransport(SharedHttpClient.get(), SharedHttpClient.getExecutor()));
+      }
       int daysToRetrieve = settings.getInt(DAYS_PROPERTY);
       Calendar calendar = Calendar.getInstance();
       calendar.add(Calendar.DAY_OF_MONTH, -daysToRetrieve);
       Date date = calendar.getTime();
-      builds = connector.getBuildsSince(date);
+      ResponseCache responseCache = ResponseCache.forDirectory(getCacheDirectory());
+      connector.setResponseCache(responseCache);
+      builds = SharedBuildCache.get().getBuildsSince(connector, date, new BuildHistoryCache(getCacheDirectory()));
+      saveQuietly(responseCache);
       LOG.info("Retrieved {} builds since {}", builds.size(), date);
+      if (connector.getBytesReceived() > 0) {
+        LOG.info("Received {} bytes from the CI server, {} bytes once decompressed", connector.getBytesReceived(), connector.getBytesDecoded());
+      }
     } catch (Exception e) {
       LOG.error(e.getMessage(), e);
       return;
     }
     analyseBuilds(builds, context);
-  }
-
-  protected void analyseBuilds(List<Build> builds, SensorContext context) {
-    Collections.sort(builds, new Comparator<Build>() {
-      @Override
-      public int compare(Build o1, Build o2) {
-        return (int) (o1.getTimestamp() - o2.getTimestamp()); 
-      }
-    });
-
-    PropertiesBuilder<String, Double> durationsBuilder = new PropertiesBuilder<String, Double>(BuildStabilityMetrics.DURATIONS);
-    PropertiesBuilder<String, String> resultsBuilder = new PropertiesBuilder<String, String>(BuildStabilityMetrics.RESULTS);
-
-    double successful = 0;
-    double failed = 0;
-    double duration = 0;
-    double shortest = Double.POSITIVE_INFINITY;
-    double longest = Double.NEGATIVE_INFINITY;
-
-    double totalTimeToFix = 0;
-    double totalBuildsToFix = 0;
-    double longestTimeToFix = Double.NEGATIVE_INFINITY;
-    int fixes = 0;
-    Build firstFailed = null;
-
-    for (Build build : builds) {
-      LOG.debug("Analysing build: {}.", build.toString());
-
-      String buildNumber = build.getNumberAsString();
-      double buildDuration = build.getDuration();
-      resultsBuilder.add(buildNumber, build.isSuccessful() ? "g" : "r");
-      durationsBuilder.add(buildNumber, buildDuration / 1000);
-      if (build.isSuccessful()) {
-        LOG.debug("  Successful.");
-        
-        successful++;
-        duration += buildDuration;
-        shortest = Math.min(shortest, buildDuration);
-        longest = Math.max(longest, buildDuration);
-        
-        if (firstFailed != null) {
-          // Change in build state detected. Working out stats related to failure duration.
-          LOG.debug("  First success after failure.");
-          int buildsToFix = builds.indexOf(build) - builds.indexOf(firstFailed);
-          totalBuildsToFix += buildsToFix;
-          
-          double timeToFix = build.getTimestamp() - firstFailed.getTimestamp();
-          totalTimeToFix += timeToFix;
-          longestTimeToFix = Math.max(longestTimeToFix, timeToFix);
-          
-          fixes++;
-          firstFailed = null;
-        }
-      } else {        
-        failed++;
-        if (firstFailed == null)
-          firstFailed = build;
-      }
+    if (builds.getCoverage() < 1) {
+      LOG.warn("Measures only cover {}% of the analysed builds", Math.round(builds.getCoverage() * 100));
     }
+    context.saveMeasure(new Measure(BuildStabilityMetrics.DATA_COVERAGE, builds.getCoverage() * 100));
+  }
 
-    double count = successful + failed;
-
-    context.saveMeasure(new Measure(BuildStabilityMetrics.BUILDS, count));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.FAILED, failed));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.SUCCESS_RATE, divide(successful, count) * 100));
-
-    context.saveMeasure(new Measure(BuildStabilityMetrics.AVG_DURATION, divide(duration, successful)));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.LONGEST_DURATION, normalize(longest)));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.SHORTEST_DURATION, normalize(shortest)));
-
-    context.saveMeasure(new Measure(BuildStabilityMetrics.AVG_TIME_TO_FIX, divide(totalTimeToFix, fixes)));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.LONGEST_TIME_TO_FIX, normalize(longestTimeToFix)));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.AVG_BUILDS_TO_FIX, divide(totalBuildsToFix, fixes)));
-
-    if (!builds.isEmpty()) {
-      context.saveMeasure(durationsBuilder.build());
-      context.saveMeasure(resultsBuilder.build());
+  private static void saveQuietly(ResponseCache responseCache) {
+    try {
+      responseCache.save();
+    } catch (IOException e) {
+      LOG.warn("Unable to save the response cache", e);
     }
   }
 
-  private double normalize(double value) {
-    return Double.isInfinite(value) ? 0 : value;
+  protected void analyseBuilds(List<Build> builds, SensorContext context) {
+    analyseBuilds(BuildSeries.of(builds), context);
   }
 
-  private double divide(double v1, double v2) {
-    return Double.doubleToRawLongBits(v2) == 0 ? 0 : v1 / v2;
+  protected void analyseBuilds(BuildSeries builds, SensorContext context) {
+    BuildAnalyser.create(System.currentTimeMillis(), getWindows()).analyse(builds, context);
   }
 
   @Override
@@ -0,0 +1,41 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.analysis;
+
+import org.sonar.api.batch.SensorContext;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+/**
+ * Computes some measures out of a single pass over builds.
+ * <p/>
+ * Builds are given once each, oldest first, as their position in the analysed series. Implementations read the
+ * columns they need and keep only running totals, so that analysing a window does not allocate anything per build.
+ *
+ * @author Ivan Li
+ */
+public interface BuildAccumulator {
+
+  void add(BuildSeries builds, int index);
+
+  /**
+   * Called once all builds have been given, even when there were none.
+   */
+  void saveMeasures(SensorContext context);
+}
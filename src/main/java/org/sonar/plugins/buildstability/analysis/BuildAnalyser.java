@@ -0,0 +1,103 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.analysis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.measures.Metric;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Feeds builds, sorted by timestamp, to every accumulator in a single pass.
+ *
+ * @author Ivan Li
+ */
+public class BuildAnalyser {
+  private static final Logger LOG = LoggerFactory.getLogger(BuildAnalyser.class);
+
+  private final List<BuildAccumulator> accumulators;
+
+  public BuildAnalyser(BuildAccumulator... accumulators) {
+    this.accumulators = new ArrayList<BuildAccumulator>(Arrays.asList(accumulators));
+  }
+
+  /**
+   * Analyser computing all the measures of the plugin.
+   *
+   * @param now end of the analysed windows
+   * @param windows sizes in days of the windows to measure besides the whole analysed period
+   */
+  public static BuildAnalyser create(long now, int... windows) {
+    return new BuildAnalyser(
+      new SuccessRateAccumulator(),
+      new DurationAccumulator(),
+      new DurationEwmaAccumulator(),
+      new TimeToFixAccumulator(),
+      new WindowAccumulator(now, windows),
+      new HistoryAccumulator());
+  }
+
+  public BuildAnalyser add(BuildAccumulator accumulator) {
+    accumulators.add(accumulator);
+    return this;
+  }
+
+  /**
+   * Sorts the given builds, oldest first, and saves the measures of every accumulator.
+   */
+  public void analyse(BuildSeries builds, SensorContext context) {
+    builds.sortByTimestamp();
+
+    BuildAccumulator[] all = accumulators.toArray(new BuildAccumulator[accumulators.size()]);
+    for (int index = 0; index < builds.size(); index++) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Analysing build: {}.", builds.get(index));
+      }
+      for (BuildAccumulator accumulator : all) {
+        accumulator.add(builds, index);
+      }
+    }
+
+    for (BuildAccumulator accumulator : all) {
+      accumulator.saveMeasures(context);
+    }
+  }
+
+  static void savePercentiles(SensorContext context, DurationHistogram histogram, Metric p50, Metric p90, Metric p95, Metric p99) {
+    context.saveMeasure(new Measure(p50, (double) histogram.getValueAtPercentile(50)));
+    context.saveMeasure(new Measure(p90, (double) histogram.getValueAtPercentile(90)));
+    context.saveMeasure(new Measure(p95, (double) histogram.getValueAtPercentile(95)));
+    context.saveMeasure(new Measure(p99, (double) histogram.getValueAtPercentile(99)));
+  }
+
+  static double normalize(double value) {
+    return Double.isInfinite(value) ? 0 : value;
+  }
+
+  static double divide(double v1, double v2) {
+    return Double.doubleToRawLongBits(v2) == 0 ? 0 : v1 / v2;
+  }
+}
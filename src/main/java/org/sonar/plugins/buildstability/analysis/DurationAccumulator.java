@@ -0,0 +1,134 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.analysis;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.measures.Metric;
+import org.sonar.plugins.buildstability.BuildStabilityMetrics;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+/**
+ * Average, shortest, longest and percentiles of the duration of successful builds. Builds whose duration is unknown,
+ * because their details were not fetched, are left out.
+ * <p/>
+ * When some successful builds are left out, the measured durations are a sample of them: the sample size and the 95%
+ * confidence intervals of the average and of the 50th and 90th percentiles are saved along. The interval of the
+ * average relies on the central limit theorem, with the finite population correction, those of percentiles on the
+ * ranks of order statistics, which hold whatever the distribution of durations. The longest duration is then the
+ * longest sampled, a lower bound of the actual one.
+ *
+ * @author Ivan Li
+ */
+public class DurationAccumulator implements BuildAccumulator {
+  /**
+   * Standard normal quantile of a two-sided 95% confidence interval.
+   */
+  static final double Z_95 = 1.96;
+
+  private double successful;
+  private double duration;
+  private double shortest = Double.POSITIVE_INFINITY;
+  private double longest = Double.NEGATIVE_INFINITY;
+  private long unmeasured;
+  private double mean;
+  private double squaredDeviations;
+  private final DurationHistogram histogram = new DurationHistogram();
+
+  @Override
+  public void add(BuildSeries builds, int index) {
+    if (!builds.isSuccessful(index)) {
+      return;
+    }
+    if (builds.isEstimated(index)) {
+      unmeasured++;
+      return;
+    }
+    int buildDuration = builds.getDuration(index);
+    successful++;
+    duration += buildDuration;
+    shortest = Math.min(shortest, buildDuration);
+    longest = Math.max(longest, buildDuration);
+    histogram.record(buildDuration);
+    // Welford's update, the sum of squares would lose the variance of long builds
+    double delta = buildDuration - mean;
+    mean += delta / successful;
+    squaredDeviations += delta * (buildDuration - mean);
+  }
+
+  @Override
+  public void saveMeasures(SensorContext context) {
+    context.saveMeasure(new Measure(BuildStabilityMetrics.AVG_DURATION, BuildAnalyser.divide(duration, successful)));
+    context.saveMeasure(new Measure(BuildStabilityMetrics.LONGEST_DURATION, BuildAnalyser.normalize(longest)));
+    context.saveMeasure(new Measure(BuildStabilityMetrics.SHORTEST_DURATION, BuildAnalyser.normalize(shortest)));
+    BuildAnalyser.savePercentiles(context, histogram, BuildStabilityMetrics.DURATION_P50, BuildStabilityMetrics.DURATION_P90,
+      BuildStabilityMetrics.DURATION_P95, BuildStabilityMetrics.DURATION_P99);
+    if (unmeasured > 0) {
+      saveConfidenceBounds(context);
+    }
+  }
+
+  private void saveConfidenceBounds(SensorContext context) {
+    context.saveMeasure(new Measure(BuildStabilityMetrics.DURATION_SAMPLE_SIZE, successful));
+    if (successful < 2) {
+      return;
+    }
+    double margin = getAverageMargin((long) successful, (long) successful + unmeasured, squaredDeviations / (successful - 1));
+    context.saveMeasure(new Measure(BuildStabilityMetrics.AVG_DURATION_LOWER, Math.max(0, mean - margin)));
+    context.saveMeasure(new Measure(BuildStabilityMetrics.AVG_DURATION_UPPER, mean + margin));
+    savePercentileBounds(context, 0.5, BuildStabilityMetrics.DURATION_P50_LOWER, BuildStabilityMetrics.DURATION_P50_UPPER);
+    savePercentileBounds(context, 0.9, BuildStabilityMetrics.DURATION_P90_LOWER, BuildStabilityMetrics.DURATION_P90_UPPER);
+  }
+
+  private void savePercentileBounds(SensorContext context, double quantile, Metric lower, Metric upper) {
+    long[] ranks = getQuantileRanks(histogram.getCount(), quantile);
+    context.saveMeasure(new Measure(lower, (double) histogram.getValueAtRank(ranks[0])));
+    context.saveMeasure(new Measure(upper, (double) histogram.getValueAtRank(ranks[1])));
+  }
+
+  /**
+   * Half-width of the 95% confidence interval of the average of a population estimated from a simple random sample.
+   *
+   * @param sampleSize measured builds, at least 2
+   * @param populationSize measured and unmeasured builds
+   * @param variance unbiased variance of the sample
+   */
+  @VisibleForTesting
+  static double getAverageMargin(long sampleSize, long populationSize, double variance) {
+    double correction = populationSize > 1 ? (double) (populationSize - sampleSize) / (populationSize - 1) : 0;
+    return Z_95 * Math.sqrt(variance / sampleSize * correction);
+  }
+
+  /**
+   * Ranks, among the sorted values of a sample, of the bounds of the 95% confidence interval of the given quantile of
+   * the population: the number of values below the quantile is binomial, approximated by a normal distribution.
+   *
+   * @return lower and upper ranks, between 1 and the sample size
+   */
+  @VisibleForTesting
+  static long[] getQuantileRanks(long sampleSize, double quantile) {
+    double center = sampleSize * quantile;
+    double spread = Z_95 * Math.sqrt(sampleSize * quantile * (1 - quantile));
+    long lower = Math.max(1, (long) Math.floor(center - spread));
+    long upper = Math.min(sampleSize, (long) Math.ceil(center + spread) + 1);
+    return new long[] {lower, upper};
+  }
+}
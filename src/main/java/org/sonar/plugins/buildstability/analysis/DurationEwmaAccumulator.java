@@ -0,0 +1,59 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.analysis;
+
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.measures.Measure;
+import org.sonar.plugins.buildstability.BuildStabilityMetrics;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+/**
+ * Exponentially weighted moving average of the duration of successful builds, which follows recent trends more
+ * closely than the average over the whole window.
+ *
+ * @author Ivan Li
+ */
+public class DurationEwmaAccumulator implements BuildAccumulator {
+  /**
+   * Weight of each new build: the last 10 builds account for about 90% of the average.
+   */
+  static final double ALPHA = 0.2;
+
+  private double average;
+  private boolean empty = true;
+
+  @Override
+  public void add(BuildSeries builds, int index) {
+    if (builds.isSuccessful(index) && !builds.isEstimated(index)) {
+      int duration = builds.getDuration(index);
+      if (empty) {
+        average = duration;
+        empty = false;
+      } else {
+        average += ALPHA * (duration - average);
+      }
+    }
+  }
+
+  @Override
+  public void saveMeasures(SensorContext context) {
+    context.saveMeasure(new Measure(BuildStabilityMetrics.DURATION_EWMA, average));
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.analysis;
+
+/**
+ * Histogram of durations with logarithmic buckets, in the manner of HdrHistogram: values below {@value #SUB_BUCKETS}
+ * are counted exactly, larger ones in buckets whose width is 1/{@value #HALF} of their magnitude. Percentiles are
+ * thus accurate to about 1.5%, with a memory bounded by the range of a long whatever the number of values, and
+ * histograms can be merged.
+ *
+ * @author Ivan Li
+ */
+public class DurationHistogram {
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF = SUB_BUCKETS >> 1;
+  private static final int MAX_SHIFT = Long.SIZE - SUB_BUCKET_BITS;
+  private static final int BUCKETS = SUB_BUCKETS + MAX_SHIFT * HALF;
+
+  private long[] counts;
+  private long count;
+
+  /**
+   * @param value negative values are counted as 0
+   */
+  public void record(long value) {
+    if (counts == null) {
+      counts = new long[BUCKETS];
+    }
+    counts[indexOf(Math.max(0, value))]++;
+    count++;
+  }
+
+  public void merge(DurationHistogram other) {
+    if (other.counts == null) {
+      return;
+    }
+    if (counts == null) {
+      counts = new long[BUCKETS];
+    }
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Nearest-rank percentile: the smallest recorded value such that the given percentage of values is lower or equal.
+   *
+   * @param percentile between 0 and 100
+   * @return 0 when nothing was recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    return getValueAtRank((long) Math.ceil(Math.min(100, percentile) / 100 * count));
+  }
+
+  /**
+   * The rank-th smallest recorded value, ranks out of range being clamped between 1 and the number of values.
+   *
+   * @return 0 when nothing was recorded
+   */
+  public long getValueAtRank(long rank) {
+    if (count == 0) {
+      return 0;
+    }
+    long clamped = Math.max(1, Math.min(count, rank));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= clamped) {
+        return valueOf(i);
+      }
+    }
+    throw new IllegalStateException("Inconsistent histogram, " + seen + " values out of " + count);
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+  }
+
+  /**
+   * Middle of the bucket, values below {@value #SUB_BUCKETS} being exact.
+   */
+  static long valueOf(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKETS) / HALF + 1;
+    long lowest = (long) ((index - SUB_BUCKETS) % HALF + HALF) << shift;
+    return lowest + (1L << (shift - 1));
+  }
+}
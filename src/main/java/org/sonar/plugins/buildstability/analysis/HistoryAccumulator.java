@@ -0,0 +1,72 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.analysis;
+
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.measures.Measure;
+import org.sonar.plugins.buildstability.BuildStabilityMetrics;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+/**
+ * Duration and result of each build, as displayed by the chart and the widget. Builds whose details were not fetched
+ * have a result but no duration.
+ * <p/>
+ * Measure data is written straight from the series, in the format of {@link org.sonar.api.measures.PropertiesBuilder}:
+ * entries sorted by build number, the latest build winning when a number appears twice.
+ *
+ * @author Ivan Li
+ */
+public class HistoryAccumulator implements BuildAccumulator {
+  private BuildSeries builds;
+
+  @Override
+  public void add(BuildSeries builds, int index) {
+    this.builds = builds;
+  }
+
+  @Override
+  public void saveMeasures(SensorContext context) {
+    if (builds == null || builds.isEmpty()) {
+      return;
+    }
+    int[] order = builds.orderByNumber();
+    StringBuilder durations = new StringBuilder(order.length * 16);
+    StringBuilder results = new StringBuilder(order.length * 8);
+    for (int i = 0; i < order.length; i++) {
+      int index = order[i];
+      if (i + 1 < order.length && builds.getNumber(index).equals(builds.getNumber(order[i + 1]))) {
+        continue;
+      }
+      String number = builds.getNumber(index);
+      if (!builds.isEstimated(index)) {
+        if (durations.length() > 0) {
+          durations.append(';');
+        }
+        durations.append(number).append('=').append(builds.getDuration(index) / 1000.0);
+      }
+      if (results.length() > 0) {
+        results.append(';');
+      }
+      results.append(number).append('=').append(builds.isSuccessful(index) ? 'g' : 'r');
+    }
+    context.saveMeasure(new Measure(BuildStabilityMetrics.DURATIONS, durations.toString()));
+    context.saveMeasure(new Measure(BuildStabilityMetrics.RESULTS, results.toString()));
+  }
+}
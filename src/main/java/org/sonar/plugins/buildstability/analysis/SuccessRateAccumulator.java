@@ -0,0 +1,52 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.analysis;
+
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.measures.Measure;
+import org.sonar.plugins.buildstability.BuildStabilityMetrics;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+/**
+ * Number of builds, failed builds and ratio of successful ones.
+ *
+ * @author Ivan Li
+ */
+public class SuccessRateAccumulator implements BuildAccumulator {
+  private double successful;
+  private double failed;
+
+  @Override
+  public void add(BuildSeries builds, int index) {
+    if (builds.isSuccessful(index)) {
+      successful++;
+    } else {
+      failed++;
+    }
+  }
+
+  @Override
+  public void saveMeasures(SensorContext context) {
+    double count = successful + failed;
+    context.saveMeasure(new Measure(BuildStabilityMetrics.BUILDS, count));
+    context.saveMeasure(new Measure(BuildStabilityMetrics.FAILED, failed));
+    context.saveMeasure(new Measure(BuildStabilityMetrics.SUCCESS_RATE, BuildAnalyser.divide(successful, count) * 100));
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.analysis;
+
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.measures.Measure;
+import org.sonar.plugins.buildstability.BuildStabilityMetrics;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+/**
+ * Time and number of builds between the first failure and the next successful build.
+ *
+ * @author Ivan Li
+ */
+public class TimeToFixAccumulator implements BuildAccumulator {
+  private double totalTimeToFix;
+  private double totalBuildsToFix;
+  private double longestTimeToFix = Double.NEGATIVE_INFINITY;
+  private int fixes;
+  private final DurationHistogram histogram = new DurationHistogram();
+
+  private int firstFailedIndex = -1;
+  private long firstFailedTimestamp;
+
+  @Override
+  public void add(BuildSeries builds, int index) {
+    if (builds.isSuccessful(index)) {
+      if (firstFailedIndex >= 0) {
+        // Change in build state detected. Working out stats related to failure duration.
+        totalBuildsToFix += index - firstFailedIndex;
+
+        double timeToFix = builds.getTimestamp(index) - firstFailedTimestamp;
+        totalTimeToFix += timeToFix;
+        longestTimeToFix = Math.max(longestTimeToFix, timeToFix);
+        histogram.record((long) timeToFix);
+
+        fixes++;
+        firstFailedIndex = -1;
+      }
+    } else if (firstFailedIndex < 0) {
+      firstFailedIndex = index;
+      firstFailedTimestamp = builds.getTimestamp(index);
+    }
+  }
+
+  @Override
+  public void saveMeasures(SensorContext context) {
+    context.saveMeasure(new Measure(BuildStabilityMetrics.AVG_TIME_TO_FIX, BuildAnalyser.divide(totalTimeToFix, fixes)));
+    context.saveMeasure(new Measure(BuildStabilityMetrics.LONGEST_TIME_TO_FIX, BuildAnalyser.normalize(longestTimeToFix)));
+    context.saveMeasure(new Measure(BuildStabilityMetrics.AVG_BUILDS_TO_FIX, BuildAnalyser.divide(totalBuildsToFix, fixes)));
+    BuildAnalyser.savePercentiles(context, histogram, BuildStabilityMetrics.TIME_TO_FIX_P50, BuildStabilityMetrics.TIME_TO_FIX_P90,
+      BuildStabilityMetrics.TIME_TO_FIX_P95, BuildStabilityMetrics.TIME_TO_FIX_P99);
+  }
+}
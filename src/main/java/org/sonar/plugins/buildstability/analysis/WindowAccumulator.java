@@ -0,0 +1,154 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.analysis;
+
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.measures.Measure;
+import org.sonar.plugins.buildstability.BuildStabilityMetrics;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+import java.util.Arrays;
+
+/**
+ * Success rate, average duration and average time to fix over several windows ending now, for example the last 7
+ * and 30 days of the analysed builds.
+ * <p/>
+ * Windows are nested, so builds are only counted once, in the segment between the start of a window and the start
+ * of the next smaller one. As builds come oldest first, moving to the next segment is a single comparison. Totals of a
+ * window are the sum of its segments, computed when measures are saved.
+ *
+ * @author Ivan Li
+ */
+public class WindowAccumulator implements BuildAccumulator {
+  private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+  /**
+   * Window sizes, largest first.
+   */
+  private final int[] days;
+  /**
+   * Window starts, oldest first.
+   */
+  private final long[] starts;
+
+  private final double[] successful;
+  private final double[] failed;
+  private final double[] duration;
+  private final double[] measured;
+  private final double[] fixes;
+  private final double[] timeToFix;
+
+  private int segment = -1;
+  private int firstFailedSegment = -1;
+  private long firstFailedTimestamp;
+
+  public WindowAccumulator(long now, int... windows) {
+    int[] sorted = windows.clone();
+    Arrays.sort(sorted);
+    // Each window once, a repeated one would repeat its key in the measures
+    int count = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        sorted[count++] = sorted[i];
+      }
+    }
+    days = new int[count];
+    starts = new long[count];
+    for (int i = 0; i < count; i++) {
+      days[i] = sorted[count - 1 - i];
+      starts[i] = now - days[i] * MILLIS_PER_DAY;
+    }
+    successful = new double[count];
+    failed = new double[count];
+    duration = new double[count];
+    measured = new double[count];
+    fixes = new double[count];
+    timeToFix = new double[count];
+  }
+
+  @Override
+  public void add(BuildSeries builds, int index) {
+    long timestamp = builds.getTimestamp(index);
+    while (segment + 1 < starts.length && timestamp >= starts[segment + 1]) {
+      segment++;
+    }
+    if (segment < 0) {
+      // Older than the largest window
+      return;
+    }
+    if (builds.isSuccessful(index)) {
+      successful[segment]++;
+      if (!builds.isEstimated(index)) {
+        // Durations are only known for the builds whose details were fetched
+        measured[segment]++;
+        duration[segment] += builds.getDuration(index);
+      }
+      if (firstFailedSegment >= 0) {
+        fixes[firstFailedSegment]++;
+        timeToFix[firstFailedSegment] += timestamp - firstFailedTimestamp;
+        firstFailedSegment = -1;
+      }
+    } else {
+      failed[segment]++;
+      if (firstFailedSegment < 0) {
+        firstFailedSegment = segment;
+        firstFailedTimestamp = timestamp;
+      }
+    }
+  }
+
+  @Override
+  public void saveMeasures(SensorContext context) {
+    if (days.length == 0) {
+      return;
+    }
+    StringBuilder successRates = new StringBuilder();
+    StringBuilder durations = new StringBuilder();
+    StringBuilder timesToFix = new StringBuilder();
+    double windowSuccessful = 0;
+    double windowFailed = 0;
+    double windowDuration = 0;
+    double windowMeasured = 0;
+    double windowFixes = 0;
+    double windowTimeToFix = 0;
+    // Smallest window first
+    for (int i = days.length - 1; i >= 0; i--) {
+      windowSuccessful += successful[i];
+      windowFailed += failed[i];
+      windowDuration += duration[i];
+      windowMeasured += measured[i];
+      windowFixes += fixes[i];
+      windowTimeToFix += timeToFix[i];
+      append(successRates, days[i], BuildAnalyser.divide(windowSuccessful, windowSuccessful + windowFailed) * 100);
+      append(durations, days[i], BuildAnalyser.divide(windowDuration, windowMeasured));
+      append(timesToFix, days[i], BuildAnalyser.divide(windowTimeToFix, windowFixes));
+    }
+    context.saveMeasure(new Measure(BuildStabilityMetrics.WINDOW_SUCCESS_RATES, successRates.toString()));
+    context.saveMeasure(new Measure(BuildStabilityMetrics.WINDOW_AVG_DURATIONS, durations.toString()));
+    context.saveMeasure(new Measure(BuildStabilityMetrics.WINDOW_AVG_TIMES_TO_FIX, timesToFix.toString()));
+  }
+
+  private static void append(StringBuilder data, int days, double value) {
+    if (data.length() > 0) {
+      data.append(';');
+    }
+    data.append(days).append('=').append(value);
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.protocol.HttpContext;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+/**
+ * Default transport: each request is executed by the calling thread with a classic {@link HttpClient}, and the
+ * response is read while it is being received.
+ *
+ * @author Ivan Li
+ */
+public class BlockingHttpTransport implements HttpTransport {
+
+  private final HttpClient client;
+
+  public BlockingHttpTransport(HttpClient client) {
+    this.client = client;
+  }
+
+  @Override
+  public Future<HttpResponse> send(HttpGet request, HttpContext context, @Nullable FutureCallback<HttpResponse> callback) {
+    BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(callback);
+    try {
+      future.completed(client.execute(request, context));
+    } catch (IOException e) {
+      future.failed(e);
+    }
+    return future;
+  }
+
+  @Override
+  public boolean isNonBlocking() {
+    return false;
+  }
+}
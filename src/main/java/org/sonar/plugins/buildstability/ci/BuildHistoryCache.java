@@ -0,0 +1,331 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.buildstability.ci.api.AbstractServer;
+import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+import javax.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Local history of finished builds, one file per CI server host and build type, keyed by build number.
+ * <p/>
+ * Finished builds never change, so each analysis only asks the CI server for builds started after the newest
+ * cached one, and entries older than the analysed window are evicted. The cache also records a watermark: the last
+ * finished build and the window of the previous refresh. When the last build is still the same and the window did
+ * not move to another day, cached builds are reused as they are and the whole analysis costs a single request.
+ * <p/>
+ * Updates are made under an exclusive file lock and published by an atomic rename, so several analyses can share
+ * the cache on the same agent.
+ * <p/>
+ * Binary format: magic, version, watermark (number and finish time of the last build, start of the window), table
+ * of results, then for each build its number, start timestamp, duration in milliseconds and an index in the table
+ * of results whose high bit flags a successful build.
+ *
+ * @author Ivan Li
+ */
+public class BuildHistoryCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BuildHistoryCache.class);
+  private static final int MAGIC = 0x42534843;
+  private static final byte VERSION = 2;
+  private static final int SUCCESSFUL = 0x80;
+  private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+  private final File directory;
+
+  public BuildHistoryCache(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Returns the builds started since the given date, downloading only those the cache does not know yet.
+   * <p/>
+   * When the deadline of the connector expires, cached builds are returned along with those fetched in time, and
+   * the coverage of the result tells how much of the period they represent.
+   */
+  public BuildSeries getBuildsSince(CiConnector connector, Date date) throws IOException {
+    AbstractServer server = connector.getServer();
+    File file = getFile(server.getHost(), server.getKey());
+    History cached = read(file);
+
+    Build last;
+    BuildSeries fetched;
+    try {
+      last = connector.getLastBuild();
+      if (last != null && cached.isUpToDate(last, date)) {
+        LOG.info("No build finished since last analysis, reusing cached builds");
+        return cached.getBuildsSince(date.getTime());
+      }
+
+      Date refreshDate = getRefreshDate(cached.builds, date);
+      LOG.debug("{} builds in cache, refreshing since {}", cached.builds.size(), refreshDate);
+      fetched = BuildSeries.of(connector.getBuildsSince(refreshDate));
+    } catch (DeadlineExceededException e) {
+      BuildSeries builds = cached.getBuildsSince(date.getTime());
+      builds.setCoverage(getTimeCoverage(cached.builds, date.getTime(), System.currentTimeMillis()));
+      LOG.warn("CI server did not answer in time, using the {} cached builds", builds.size());
+      return builds;
+    }
+
+    if (fetched.getCoverage() < 1 || fetched.hasEstimatedBuilds()) {
+      // Builds missing in the middle of the fetched ones would never be downloaded again if they were cached, nor
+      // would the details of estimated builds
+      LOG.debug("Not caching an incomplete list of builds");
+      cached.merge(fetched);
+      cached.evictBefore(date.getTime());
+      BuildSeries builds = cached.getBuildsSince(date.getTime());
+      builds.setCoverage(fetched.getCoverage());
+      return builds;
+    }
+    return update(file, fetched, last, date.getTime()).getBuildsSince(date.getTime());
+  }
+
+  /**
+   * Share of the period up to now for which cached builds are known.
+   */
+  @VisibleForTesting
+  static double getTimeCoverage(BuildSeries cached, long start, long now) {
+    long newest = start;
+    for (int i = 0; i < cached.size(); i++) {
+      newest = Math.max(newest, cached.getTimestamp(i) + cached.getDuration(i));
+    }
+    return now > start ? (double) (Math.min(newest, now) - start) / (now - start) : 1;
+  }
+
+  /**
+   * Builds started before the newest cached one might still have been running when the cache was written, so the
+   * refresh goes back by the longest known duration.
+   */
+  @VisibleForTesting
+  static Date getRefreshDate(BuildSeries cached, Date date) {
+    long newest = 0;
+    long longest = 0;
+    for (int i = 0; i < cached.size(); i++) {
+      newest = Math.max(newest, cached.getTimestamp(i));
+      longest = Math.max(longest, cached.getDuration(i));
+    }
+    long refresh = newest - longest;
+    return refresh > date.getTime() ? new Date(refresh) : date;
+  }
+
+  @VisibleForTesting
+  File getFile(String host, String key) {
+    return new File(directory, DigestUtils.sha1Hex(host + "\n" + key) + ".bin");
+  }
+
+  private History update(File file, BuildSeries fetched, @Nullable Build last, long windowStart) throws IOException {
+    synchronized (lockFor(file)) {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Unable to create build cache directory " + directory);
+      }
+      RandomAccessFile lockFile = new RandomAccessFile(new File(file.getPath() + ".lock"), "rw");
+      try {
+        FileLock lock = lockFile.getChannel().lock();
+        try {
+          // Another analysis may have updated the cache while we were downloading
+          History history = read(file);
+          history.merge(fetched);
+          history.evictBefore(windowStart);
+          history.setWatermark(last, windowStart);
+          write(file, history);
+          return history;
+        } finally {
+          lock.release();
+        }
+      } finally {
+        IOUtils.closeQuietly(lockFile);
+      }
+    }
+  }
+
+  private static Object lockFor(File file) {
+    String path = file.getAbsolutePath();
+    LOCKS.putIfAbsent(path, new Object());
+    return LOCKS.get(path);
+  }
+
+  @VisibleForTesting
+  static History read(File file) {
+    History history = new History();
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+        LOG.warn("Ignoring build cache {} written in an unknown format", file);
+        return history;
+      }
+      history.lastNumber = in.readUTF();
+      history.lastFinish = in.readLong();
+      history.windowStart = in.readLong();
+      String[] results = new String[in.readUnsignedByte()];
+      for (int i = 0; i < results.length; i++) {
+        results[i] = in.readUTF();
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String number = in.readUTF();
+        long timestamp = in.readLong();
+        int duration = in.readInt();
+        int flags = in.readUnsignedByte();
+        history.builds.add(number, timestamp, results[flags & ~SUCCESSFUL], (flags & SUCCESSFUL) != 0, duration);
+      }
+    } catch (FileNotFoundException e) {
+      // Nothing cached yet
+    } catch (IOException e) {
+      LOG.warn("Ignoring unreadable build cache " + file, e);
+      history = new History();
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+    return history;
+  }
+
+  @VisibleForTesting
+  static void write(File file, History history) throws IOException {
+    BuildSeries builds = history.builds;
+    List<String> results = new ArrayList<String>();
+    for (int i = 0; i < builds.size(); i++) {
+      String result = StringUtils.defaultString(builds.getResult(i));
+      if (!results.contains(result)) {
+        results.add(result);
+      }
+    }
+    if (results.size() > (SUCCESSFUL - 1)) {
+      throw new IllegalStateException("Too many distinct build results to cache: " + results.size());
+    }
+
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+      out.writeUTF(history.lastNumber);
+      out.writeLong(history.lastFinish);
+      out.writeLong(history.windowStart);
+      out.writeByte(results.size());
+      for (String result : results) {
+        out.writeUTF(result);
+      }
+      out.writeInt(builds.size());
+      for (int i = 0; i < builds.size(); i++) {
+        out.writeUTF(builds.getNumber(i));
+        out.writeLong(builds.getTimestamp(i));
+        out.writeInt(builds.getDuration(i));
+        out.writeByte(results.indexOf(StringUtils.defaultString(builds.getResult(i))) | (builds.isSuccessful(i) ? SUCCESSFUL : 0));
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @VisibleForTesting
+  static class History {
+    final BuildSeries builds = new BuildSeries();
+    String lastNumber = "";
+    long lastFinish;
+    long windowStart;
+
+    /**
+     * True when the given last build is the one recorded at the previous refresh, and the window starts on the same day.
+     */
+    boolean isUpToDate(Build last, Date date) {
+      return lastNumber.equals(last.getNumberAsString())
+        && lastFinish == getFinish(last)
+        && windowStart > 0
+        && DateUtils.isSameDay(new Date(windowStart), date);
+    }
+
+    void setWatermark(@Nullable Build last, long windowStart) {
+      this.lastNumber = last == null ? "" : last.getNumberAsString();
+      this.lastFinish = last == null ? 0 : getFinish(last);
+      this.windowStart = windowStart;
+    }
+
+    /**
+     * Adds the complete builds of the given series, replacing those already known by number.
+     */
+    void merge(BuildSeries fetched) {
+      Map<String, Integer> positions = new HashMap<String, Integer>();
+      for (int i = 0; i < builds.size(); i++) {
+        positions.put(builds.getNumber(i), i);
+      }
+      for (int i = 0; i < fetched.size(); i++) {
+        if (fetched.getTimestamp(i) > 0) {
+          Integer position = positions.get(fetched.getNumber(i));
+          if (position == null) {
+            positions.put(fetched.getNumber(i), builds.size());
+            builds.add(fetched, i);
+          } else {
+            builds.set(position, fetched.get(i));
+          }
+        }
+      }
+    }
+
+    void evictBefore(long oldest) {
+      builds.retainSince(oldest);
+    }
+
+    BuildSeries getBuildsSince(long oldest) {
+      BuildSeries result = new BuildSeries(builds.size());
+      for (int i = 0; i < builds.size(); i++) {
+        if (builds.getTimestamp(i) >= oldest) {
+          result.add(builds, i);
+        }
+      }
+      return result;
+    }
+
+    private static long getFinish(Build build) {
+      return build.getTimestamp() + (long) build.getDuration();
+    }
+  }
+}
@@ -19,27 +19,71 @@
  */
 package org.sonar.plugins.buildstability.ci;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.annotations.VisibleForTesting;
-import org.apache.commons.io.IOUtils;
+import com.google.common.base.Throwables;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.io.SAXReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.plugins.buildstability.ci.api.AbstractServer;
 import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.BuildPage;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+import org.sonar.plugins.buildstability.ci.api.CiBackend;
+import org.sonar.plugins.buildstability.ci.api.JsonStreams;
+import org.sonar.plugins.buildstability.ci.api.RangeListing;
+import org.sonar.plugins.buildstability.ci.api.XmlStreams;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * @author Evgeny Mandrikov
@@ -47,15 +91,105 @@ import java.util.regex.Pattern;
 public class CiConnector {
 
   private static final Logger LOG = LoggerFactory.getLogger(CiConnector.class);
-  private static final int TIMEOUT = 30 * 1000;
+  private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+  /**
+   * Builds asked for by range, so that most windows are listed in a single request.
+   */
+  static final int DEFAULT_RANGE_SIZE = 500;
+  /**
+   * JSON is preferred, XML still accepted from servers which do not support it.
+   */
+  private static final String ACCEPT_JSON = JsonStreams.MIME_TYPE + ", application/xml;q=0.9";
+  /**
+   * Cookies by server host and user, so that all connectors of an analysis reuse the same session.
+   */
+  private static final ConcurrentMap<String, CookieStore> COOKIE_STORES = new ConcurrentHashMap<String, CookieStore>();
 
-  private DefaultHttpClient client;
+  private HttpClient client;
+  private HttpTransport transport;
+  private HttpContext context;
   private AbstractServer server;
+  private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+  private RetryPolicy retryPolicy = new RetryPolicy();
+  private Deadline deadline = Deadline.none();
+  private boolean acceptJson;
+  private ResponseCache responseCache;
+  private DetailPlanner detailPlanner;
+  private boolean bulkList = true;
+  private CiBackend.Pagination pagination = CiBackend.Pagination.NEXT_LINK;
+  private int rangeSize = DEFAULT_RANGE_SIZE;
+  private final AtomicLong bytesReceived = new AtomicLong();
+  private final AtomicLong bytesDecoded = new AtomicLong();
+  private final CircuitBreaker circuitBreaker;
+  private boolean loggedIn;
+
+  private final ResponseReader<Build> buildReader = new ResponseReader<Build>() {
+    @Override
+    public Build read(XMLStreamReader reader) throws XMLStreamException {
+      return server.getBuildUnmarshaller().toModel(reader);
+    }
+
+    @Override
+    public Build read(JsonParser parser) throws IOException {
+      return server.getBuildUnmarshaller().toModel(parser);
+    }
+
+    @Override
+    public BuildSeries toCache(Build build) {
+      return BuildSeries.of(Collections.singletonList(build));
+    }
+
+    @Override
+    public Build fromCache(BuildSeries builds) {
+      return builds.isEmpty() ? null : builds.get(0);
+    }
+  };
+
+  private final ResponseReader<List<Build>> buildListReader = new ResponseReader<List<Build>>() {
+    @Override
+    public List<Build> read(XMLStreamReader reader) throws XMLStreamException {
+      return server.getBuildUnmarshaller().toManyModel(reader);
+    }
+
+    @Override
+    public List<Build> read(JsonParser parser) throws IOException {
+      return server.getBuildUnmarshaller().toManyModel(parser);
+    }
+
+    /**
+     * Lists are not cached: their URL changes with the start of the analysed period, and an unchanged list is already
+     * told by the last build of the {@link BuildHistoryCache}.
+     */
+    @Override
+    public BuildSeries toCache(List<Build> builds) {
+      return null;
+    }
+
+    @Override
+    public List<Build> fromCache(BuildSeries builds) {
+      return builds;
+    }
+  };
 
   protected CiConnector(AbstractServer server) {
+    this(server, SharedHttpClient.get());
+  }
+
+  protected CiConnector(AbstractServer server, HttpClient client) {
     this.server = server;
-    client = new DefaultHttpClient();
-    HttpConnectionParams.setSoTimeout(client.getParams(), TIMEOUT);
+    this.client = client;
+    this.transport = new BlockingHttpTransport(client);
+    // Credentials and cookies belong to this connector, the client itself is shared
+    context = new BasicHttpContext();
+    context.setAttribute(ClientContext.CREDS_PROVIDER, new BasicCredentialsProvider());
+    context.setAttribute(ClientContext.COOKIE_STORE, cookieStoreFor(server));
+    circuitBreaker = CircuitBreaker.forHost(StringUtils.defaultString(server.getHost()));
+  }
+
+  private static CookieStore cookieStoreFor(AbstractServer server) {
+    String key = StringUtils.defaultString(server.getHost()) + "\n" + StringUtils.defaultString(server.getUsername());
+    COOKIE_STORES.putIfAbsent(key, new BasicCookieStore());
+    return COOKIE_STORES.get(key);
   }
 
   @VisibleForTesting
@@ -63,20 +197,143 @@ public class CiConnector {
     return server;
   }
 
-  protected Build getLastBuild() throws IOException {
-    Document dom = executeGet(server.getLastBuildUrl());
-    if (dom == null) {
-      return null;
+  @VisibleForTesting
+  HttpClient getClient() {
+    return client;
+  }
+
+  @VisibleForTesting
+  HttpTransport getTransport() {
+    return transport;
+  }
+
+  /**
+   * Transport of build requests, blocking by default. With a non-blocking transport, build details are all sent
+   * from the analysis thread instead of one thread started per concurrent request.
+   */
+  public void setTransport(HttpTransport transport) {
+    this.transport = transport;
+  }
+
+  /**
+   * Once the deadline expired, requests in flight are aborted and no other request is sent.
+   */
+  public void setDeadline(Deadline deadline) {
+    this.deadline = deadline;
+  }
+
+  /**
+   * Asks the CI server for JSON, which is smaller and quicker to parse than XML. The parser is chosen from the
+   * Content-Type of each response, so servers answering XML anyway are still supported.
+   */
+  public void setAcceptJson(boolean acceptJson) {
+    this.acceptJson = acceptJson;
+  }
+
+  /**
+   * Number of response body bytes received from the CI server, compressed or not.
+   */
+  public long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  /**
+   * Number of response body bytes once decompressed, as read by the parsers.
+   */
+  public long getBytesDecoded() {
+    return bytesDecoded.get();
+  }
+
+  /**
+   * Makes requests for single builds conditional on the validators of the responses cached for their URL, a 304
+   * being answered from the build parsed the first time.
+   */
+  public void setResponseCache(@Nullable ResponseCache responseCache) {
+    this.responseCache = responseCache;
+  }
+
+  /**
+   * With servers listing builds without their details, fetches the details of some builds only and estimates the
+   * others. Without planner, the details of every build are fetched.
+   */
+  public void setDetailPlanner(@Nullable DetailPlanner detailPlanner) {
+    this.detailPlanner = detailPlanner;
+  }
+
+  /**
+   * Tells apart connectors which fetch the details of different builds of the same list.
+   */
+  String getFetchMode() {
+    return detailPlanner == null ? "all" : detailPlanner.getSampling();
+  }
+
+  /**
+   * Whether lists of builds carry their details. When they do not, lists are asked for numbers and statuses only and
+   * details are fetched build by build.
+   */
+  public void setBulkList(boolean bulkList) {
+    this.bulkList = bulkList;
+  }
+
+  @VisibleForTesting
+  boolean isBulkList() {
+    return bulkList;
+  }
+
+  /**
+   * How lists of builds are paged. Links to the next page are followed and prefetched, ranges are asked for one after
+   * the other.
+   *
+   * @throws IllegalStateException when paging by range a server which does not implement {@link RangeListing}
+   */
+  public void setPagination(CiBackend.Pagination pagination) {
+    if (pagination == CiBackend.Pagination.RANGE && !(server instanceof RangeListing)) {
+      throw new IllegalStateException(server.getClass().getSimpleName() + " does not list builds by range");
     }
-    return server.getBuildUnmarshaller().toModel(dom.getRootElement());
+    this.pagination = pagination;
+  }
+
+  @VisibleForTesting
+  CiBackend.Pagination getPagination() {
+    return pagination;
+  }
+
+  @VisibleForTesting
+  void setRangeSize(int rangeSize) {
+    this.rangeSize = rangeSize;
+  }
+
+  @VisibleForTesting
+  void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Upper bound of build detail requests sent to the CI server at the same time, capped by the connections
+   * the shared client opens per host.
+   */
+  public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+    this.maxConcurrentRequests = Math.max(1, Math.min(maxConcurrentRequests, SharedHttpClient.MAX_CONNECTIONS_PER_HOST));
+  }
+
+  protected Build getLastBuild() throws IOException {
+    login();
+    return executeGet(server.getLastBuildUrl(), buildReader);
   }
 
   protected Build getBuild(String number) throws IOException {
-    Document dom = executeGet(server.getBuildUrl(number));
-    if (dom == null) {
-      return null;
+    login();
+    return executeGet(server.getBuildUrl(number), buildReader);
+  }
+
+  /**
+   * Logs in once, before the first request, so that no request is answered by an authentication challenge.
+   */
+  private synchronized void login() throws IOException {
+    if (!loggedIn) {
+      server.doLogin(client, context);
+      loggedIn = true;
     }
-    return server.getBuildUnmarshaller().toModel(dom.getRootElement());
   }
 
 //  protected Build getBuild(int number) throws IOException {
@@ -100,60 +357,732 @@ public class CiConnector {
 //  }
   
   public List<Build> getBuildsSince(Date date) throws IOException {
-    server.doLogin(client);
-    Document dom = executeGet(server.getBuildUrlSince(date));
-    
-    List<Build> buildSummaries = server.getBuildUnmarshaller().toManyModel(dom.getRootElement());
+    login();
+    BuildSeries buildSummaries;
+    if (pagination == CiBackend.Pagination.RANGE) {
+      buildSummaries = getRanges((RangeListing) server, date);
+    } else {
+      boolean summariesOnly = !bulkList || detailPlanner != null && detailPlanner.isFixedCost();
+      buildSummaries = getPages(summariesOnly ? server.getBuildSummaryUrlSince(date) : server.getBuildUrlSince(date));
+    }
+    if (buildSummaries == null) {
+      return new BuildSeries();
+    }
     LOG.debug("Found {} builds since {}", buildSummaries.size(), date);
-    
-    List<Build> buildDetails = new ArrayList<Build>();
-    for (Build build : buildSummaries)
-      buildDetails.add(getBuild(build.getNumberAsString()));
-    
+
+    // Fallback for servers which only list build numbers and statuses: fetch the missing details
+    BitSet missing = new BitSet(buildSummaries.size());
+    for (int i = 0; i < buildSummaries.size(); i++) {
+      if (!hasDetails(buildSummaries, i)) {
+        missing.set(i);
+      }
+    }
+    if (missing.isEmpty()) {
+      return buildSummaries;
+    }
+    BitSet unavailable = new BitSet(buildSummaries.size());
+    int expired;
+    if (detailPlanner != null && detailPlanner.canPlan(buildSummaries)) {
+      expired = fetchPlannedDetails(buildSummaries, missing, unavailable);
+    } else {
+      LOG.debug("Fetching details of {} builds", missing.cardinality());
+      expired = fetchDetails(buildSummaries, missing, unavailable);
+    }
+
+    BuildSeries buildDetails = new BuildSeries(buildSummaries.size());
+    for (int i = 0; i < buildSummaries.size(); i++) {
+      if (!unavailable.get(i)) {
+        buildDetails.add(buildSummaries, i);
+      }
+    }
+
+    if (expired > 0) {
+      LOG.warn("Time is over, details of {} out of {} builds could not be fetched", expired, buildSummaries.size());
+      buildDetails.setCoverage(1 - (double) expired / buildSummaries.size());
+    }
     return buildDetails;
   }
 
-  protected Document executeGet(String url) throws IOException {
-    return execute(new HttpGet(url));
+  /**
+   * Fetches the details the {@link DetailPlanner} asks for, tier after tier, then estimates the timestamps of the
+   * other builds.
+   *
+   * @return number of builds given up because the deadline expired
+   */
+  private int fetchPlannedDetails(BuildSeries builds, BitSet missing, BitSet unavailable) throws IOException {
+    BitSet known = (BitSet) missing.clone();
+    known.flip(0, builds.size());
+    BitSet selected = detailPlanner.plan(builds);
+    int expired = 0;
+    int requested = 0;
+    while (true) {
+      selected.andNot(known);
+      if (selected.isEmpty()) {
+        break;
+      }
+      requested += selected.cardinality();
+      expired += fetchDetails(builds, selected, unavailable);
+      known.or(selected);
+      selected = detailPlanner.refine(builds, known);
+    }
+    detailPlanner.estimate(builds);
+    LOG.info("Fetched details of {} out of {} listed builds", requested, missing.cardinality());
+    return expired;
+  }
+
+  /**
+   * Replaces the selected summaries with the details of their builds, in parallel. Builds whose details could not be
+   * fetched are flagged unavailable.
+   *
+   * @return number of builds given up because the deadline expired
+   */
+  private int fetchDetails(BuildSeries builds, BitSet selected, BitSet unavailable) throws IOException {
+    List<Integer> indexes = new ArrayList<Integer>(selected.cardinality());
+    List<String> numbers = new ArrayList<String>(selected.cardinality());
+    for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+      indexes.add(i);
+      numbers.add(builds.getNumber(i));
+    }
+    List<Build> fetched;
+    int expired;
+    if (transport.isNonBlocking()) {
+      fetched = new ArrayList<Build>(Collections.<Build>nCopies(numbers.size(), null));
+      expired = fetchAsync(numbers, fetched);
+    } else {
+      List<Callable<Build>> detailRequests = new ArrayList<Callable<Build>>();
+      for (String number : numbers) {
+        detailRequests.add(new BuildRequest(number));
+      }
+      ParallelFetcher fetcher = new ParallelFetcher(maxConcurrentRequests, deadline);
+      fetched = fetcher.fetchAll(detailRequests);
+      expired = fetcher.getExpired();
+    }
+    for (int k = 0; k < indexes.size(); k++) {
+      Build detail = fetched.get(k);
+      if (detail == null) {
+        unavailable.set(indexes.get(k));
+      } else {
+        builds.set(indexes.get(k), detail);
+      }
+    }
+    return expired;
   }
 
-  protected Document execute(HttpGet httpGet) throws IOException {
-    HttpResponse httpResponse = client.execute(httpGet);
+  /**
+   * Follows the links to the next pages of a list until the last one. The next page is requested as soon as the
+   * link to it is known, before the builds of the current one are parsed, and each page is appended to the builds of
+   * the previous ones then dropped: at most one page is held besides the builds themselves.
+   *
+   * @return null when the list does not exist
+   */
+  @Nullable
+  private BuildSeries getPages(String url) throws IOException {
+    if (pagination == CiBackend.Pagination.NONE) {
+      List<Build> page = executeGet(url, buildListReader);
+      return page == null ? null : appendTo(new BuildSeries(page.size()), BuildPage.of(page));
+    }
+    ExecutorService executor = transport.isNonBlocking() ? null : Executors.newSingleThreadExecutor(
+      new SharedHttpClient.DaemonThreadFactory("build-stability-page-prefetcher"));
+    PageReader pageReader = new PageReader(executor);
+    try {
+      List<Build> first = execute(createGet(url), pageReader, null, true);
+      if (first == null) {
+        return null;
+      }
+      BuildPage page = BuildPage.of(first);
+      BuildSeries builds = new BuildSeries(page.size());
+      int pages = 1;
+      while (true) {
+        appendTo(builds, page);
+        if (page.getNextHref() == null) {
+          break;
+        }
+        PageReader nextReader = new PageReader(executor);
+        HttpGet nextGet = pageReader.getNextRequest(page.getNextHref());
+        Future<HttpResponse> prefetched = pageReader.nextResponse;
+        pageReader = nextReader;
+        List<Build> next = execute(nextGet, pageReader, prefetched, true);
+        if (next == null) {
+          throw new CiHttpException(404, "Page " + (pages + 1) + " of builds vanished: " + nextGet.getURI());
+        }
+        page = BuildPage.of(next);
+        pages++;
+      }
+      LOG.debug("Fetched {} builds in {} pages", builds.size(), pages);
+      return builds;
+    } finally {
+      pageReader.cancel();
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Copies the builds of a page, leaving its paging state behind.
+   */
+  private static BuildSeries appendTo(BuildSeries builds, BuildPage page) {
+    for (int i = 0; i < page.size(); i++) {
+      builds.add(page, i);
+    }
+    return builds;
+  }
+
+  /**
+   * Asks for ranges of the list, newest builds first, until a range is not full or holds a build started before the
+   * given date. Servers paging this way cannot filter builds by date, so older builds are dropped here. A range is full
+   * when the server listed as many builds as asked for, counting those the unmarshaller left out.
+   *
+   * @return null when the list does not exist
+   */
+  @Nullable
+  private BuildSeries getRanges(RangeListing rangeListing, Date date) throws IOException {
+    BuildSeries builds = new BuildSeries();
+    int from = 0;
+    while (true) {
+      List<Build> range = executeGet(rangeListing.getBuildRangeUrl(from, from + rangeSize), buildListReader);
+      if (range == null) {
+        return from == 0 ? null : builds;
+      }
+      BuildPage series = BuildPage.of(range);
+      boolean older = false;
+      for (int i = 0; i < series.size(); i++) {
+        if (hasDetails(series, i) && series.getTimestamp(i) < date.getTime()) {
+          older = true;
+        } else {
+          builds.add(series, i);
+        }
+      }
+      from += rangeSize;
+      if (older || series.size() + series.getLeftOut() < rangeSize) {
+        LOG.debug("Fetched {} builds in {} ranges", builds.size(), from / rangeSize);
+        return builds;
+      }
+    }
+  }
+
+  /**
+   * Reads a page of a build list. The link to the next page being an attribute of the root element, the next page is
+   * requested while this one is being parsed, and its body streamed from the connection once this one is done. JSON
+   * objects are not ordered, so with JSON the next page is only requested once this one is parsed.
+   */
+  private class PageReader implements ResponseReader<List<Build>> {
+    private final ExecutorService executor;
+    private HttpGet nextGet;
+    private Future<HttpResponse> nextResponse;
+
+    PageReader(@Nullable ExecutorService executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public List<Build> read(XMLStreamReader reader) throws XMLStreamException {
+      String nextHref = reader.getAttributeValue(null, "nextHref");
+      if (nextHref != null) {
+        prefetch(nextHref);
+      }
+      return buildListReader.read(reader);
+    }
+
+    @Override
+    public List<Build> read(JsonParser parser) throws IOException {
+      return buildListReader.read(parser);
+    }
+
+    @Override
+    public BuildSeries toCache(List<Build> builds) {
+      return buildListReader.toCache(builds);
+    }
+
+    @Override
+    public List<Build> fromCache(BuildSeries builds) {
+      return builds;
+    }
+
+    HttpGet getNextRequest(String nextHref) {
+      prefetch(nextHref);
+      return nextGet;
+    }
+
+    private void prefetch(String nextHref) {
+      if (nextGet == null) {
+        nextGet = createGet(server.getPageUrl(nextHref));
+        nextResponse = sendAhead(nextGet, executor);
+      }
+    }
+
+    void cancel() {
+      if (nextResponse != null) {
+        nextResponse.cancel(true);
+        nextGet.abort();
+      }
+    }
+  }
+
+  /**
+   * Sends a request whose response is read later. The blocking transport waits for the response headers in the
+   * background; the body is left on the connection, which stays leased until the page is parsed or the request
+   * aborted, so that no page is ever held in memory as a whole.
+   */
+  private Future<HttpResponse> sendAhead(final HttpGet httpGet, @Nullable ExecutorService executor) {
+    if (executor == null) {
+      return transport.send(httpGet, requestContext(), null);
+    }
+    return executor.submit(new Callable<HttpResponse>() {
+      @Override
+      public HttpResponse call() throws IOException {
+        return await(transport.send(httpGet, requestContext(), null));
+      }
+    });
+  }
+
+  /**
+   * Keeps up to {@link #setMaxConcurrentRequests max concurrent requests} in flight on the non-blocking transport
+   * and parses each response as soon as it is received, in the order they complete. Failed requests are sent again
+   * one by one with retries.
+   *
+   * @return number of builds given up because the deadline expired
+   */
+  private int fetchAsync(List<String> numbers, List<Build> fetched) throws IOException {
+    BlockingQueue<Integer> completed = new LinkedBlockingQueue<Integer>();
+    List<HttpGet> requests = new ArrayList<HttpGet>(numbers.size());
+    List<Future<HttpResponse>> responses = new ArrayList<Future<HttpResponse>>(numbers.size());
+    BitSet receivedIndexes = new BitSet(numbers.size());
+    int received = 0;
+    int expired = 0;
+    try {
+      while (requests.size() < Math.min(maxConcurrentRequests, numbers.size())) {
+        sendAsync(numbers.get(requests.size()), requests, responses, completed);
+      }
+      while (received < requests.size()) {
+        Integer index = completed.poll(deadline.remaining(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+        if (index == null) {
+          break;
+        }
+        received++;
+        receivedIndexes.set(index);
+        try {
+          fetched.set(index, receiveAsync(numbers.get(index), requests.get(index), responses.get(index)));
+        } catch (DeadlineExceededException e) {
+          expired++;
+        }
+        if (requests.size() < numbers.size() && !deadline.isExpired()) {
+          sendAsync(numbers.get(requests.size()), requests, responses, completed);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while fetching builds");
+    } finally {
+      for (int i = 0; i < responses.size(); i++) {
+        responses.get(i).cancel(true);
+        if (!receivedIndexes.get(i)) {
+          // Abandoned, but let through the circuit breaker all the same
+          circuitBreaker.release();
+        }
+      }
+    }
+    return expired + numbers.size() - received;
+  }
+
+  private void sendAsync(String number, List<HttpGet> requests, List<Future<HttpResponse>> responses, BlockingQueue<Integer> completed) {
+    circuitBreaker.acquire();
+    HttpGet httpGet = createGet(server.getBuildUrl(number));
+    requests.add(httpGet);
+    responses.add(transport.send(httpGet, requestContext(), new Completion(responses.size(), completed)));
+  }
+
+  private Build receiveAsync(String number, HttpGet httpGet, Future<HttpResponse> response) throws IOException {
+    boolean recorded = false;
+    try {
+      Build build = read(httpGet, await(response), buildReader);
+      circuitBreaker.recordSuccess();
+      recorded = true;
+      return build;
+    } catch (CiHttpException e) {
+      recordOutcome(isAnswer(e));
+      recorded = true;
+      if (!e.isRetryable()) {
+        throw e;
+      }
+    } catch (IOException e) {
+      if (isInterruption(e)) {
+        circuitBreaker.release();
+        recorded = true;
+        throw e;
+      }
+    } finally {
+      if (!recorded) {
+        circuitBreaker.recordFailure();
+      }
+    }
+    LOG.debug("Failed to fetch build {}, retrying", number);
+    return getBuild(number);
+  }
+
+  /**
+   * Tells which response has been received, whether it succeeded or not.
+   */
+  private static class Completion implements FutureCallback<HttpResponse> {
+    private final int index;
+    private final BlockingQueue<Integer> completed;
+
+    Completion(int index, BlockingQueue<Integer> completed) {
+      this.index = index;
+      this.completed = completed;
+    }
+
+    @Override
+    public void completed(HttpResponse response) {
+      completed.add(index);
+    }
+
+    @Override
+    public void failed(Exception e) {
+      completed.add(index);
+    }
+
+    @Override
+    public void cancelled() {
+      completed.add(index);
+    }
+  }
+
+  /**
+   * A build from a list response is complete when it carries its start date, summaries only carry a number.
+   */
+  private static boolean hasDetails(BuildSeries builds, int index) {
+    return builds.getTimestamp(index) > 0;
+  }
+
+  private class BuildRequest implements Callable<Build> {
+    private final String number;
+
+    BuildRequest(String number) {
+      this.number = number;
+    }
+
+    /**
+     * Throttled requests are retried by the {@link ParallelFetcher}, which reduces its concurrency meanwhile.
+     */
+    @Override
+    public Build call() throws IOException {
+      login();
+      return execute(createGet(server.getBuildUrl(number)), buildReader, null, false);
+    }
+  }
+
+  /**
+   * Turns the body of a successful response into a model while it is being read.
+   */
+  protected interface ResponseReader<T> {
+    T read(XMLStreamReader reader) throws XMLStreamException;
+
+    T read(JsonParser parser) throws IOException;
+
+    /**
+     * Builds kept in the response cache for the given model, null when the response must not be cached.
+     */
+    @Nullable
+    BuildSeries toCache(T model);
+
+    /**
+     * Model answered for a response not modified since it was cached.
+     */
+    T fromCache(BuildSeries builds);
+  }
+
+  protected <T> T executeGet(String url, ResponseReader<T> responseReader) throws IOException {
+    return execute(createGet(url), responseReader);
+  }
+
+  private HttpGet createGet(String url) {
+    HttpGet httpGet = new HttpGet(url);
+    server.prepareRequest(httpGet);
+    httpGet.setHeader("Accept-Encoding", "gzip,deflate");
+    if (acceptJson) {
+      httpGet.setHeader("Accept", ACCEPT_JSON);
+    }
+    ResponseCache.Entry cached = responseCache == null ? null : responseCache.get(url);
+    if (cached != null) {
+      if (!cached.getEtag().isEmpty()) {
+        httpGet.setHeader("If-None-Match", cached.getEtag());
+      }
+      if (!cached.getLastModified().isEmpty()) {
+        httpGet.setHeader("If-Modified-Since", cached.getLastModified());
+      }
+    }
+    return httpGet;
+  }
+
+  /**
+   * GET requests are idempotent: they are retried with backoff on I/O errors and on statuses telling the server is
+   * temporarily unavailable, unless the circuit breaker of the host opened meanwhile.
+   *
+   * @return null when the resource does not exist
+   */
+  protected <T> T execute(HttpGet httpGet, ResponseReader<T> responseReader) throws IOException {
+    return execute(httpGet, responseReader, null, true);
+  }
+
+  /**
+   * @param sent response of a request already sent, used for the first attempt
+   * @param retryThrottling false when the caller retries throttled requests itself, so that it knows at once the
+   *                        server is throttling
+   */
+  private <T> T execute(HttpGet httpGet, ResponseReader<T> responseReader, @Nullable Future<HttpResponse> sent,
+    boolean retryThrottling) throws IOException {
+    for (int attempt = 1;; attempt++) {
+      deadline.check();
+      circuitBreaker.acquire();
+      boolean recorded = false;
+      long retryAfter;
+      Future<?> abort = deadline.abortOnExpiry(httpGet);
+      try {
+        Future<HttpResponse> response = attempt == 1 && sent != null ? sent : transport.send(httpGet, requestContext(), null);
+        T result = read(httpGet, await(response), responseReader);
+        circuitBreaker.recordSuccess();
+        recorded = true;
+        return result;
+      } catch (CiHttpException e) {
+        recordOutcome(isAnswer(e));
+        recorded = true;
+        if (!e.isRetryable()) {
+          throw e;
+        }
+        if (attempt >= retryPolicy.getMaxAttempts() || circuitBreaker.isOpen() || e.isThrottling() && !retryThrottling) {
+          throw e;
+        }
+        retryAfter = e.getRetryAfter();
+      } catch (IOException e) {
+        if (deadline.isExpired() || isInterruption(e)) {
+          // Aborted, the server is not to blame
+          circuitBreaker.release();
+          recorded = true;
+          if (deadline.isExpired()) {
+            throw new DeadlineExceededException();
+          }
+          throw e;
+        }
+        circuitBreaker.recordFailure();
+        recorded = true;
+        if (attempt >= retryPolicy.getMaxAttempts() || circuitBreaker.isOpen()) {
+          throw e;
+        }
+        retryAfter = -1;
+      } finally {
+        if (!recorded) {
+          // Unparsable answer: the request may have been the trial of a half-open circuit
+          circuitBreaker.recordFailure();
+        }
+        if (abort != null) {
+          abort.cancel(false);
+        }
+      }
+      long delay = retryPolicy.getDelay(attempt, retryAfter);
+      if (delay >= deadline.remaining(TimeUnit.MILLISECONDS)) {
+        throw new DeadlineExceededException();
+      }
+      LOG.debug("Attempt {} to access {} failed, retrying", attempt, httpGet.getURI());
+      retryPolicy.pause(delay);
+    }
+  }
+
+  /**
+   * Every request let through the circuit breaker must record an outcome or {@link CircuitBreaker#release release}
+   * it, otherwise a trial request of a half-open circuit would keep it open for good.
+   */
+  private void recordOutcome(boolean succeeded) {
+    if (succeeded) {
+      circuitBreaker.recordSuccess();
+    } else {
+      circuitBreaker.recordFailure();
+    }
+  }
+
+  /**
+   * Client errors and throttling tell the server is alive: throttling must slow the fetch down, not open the circuit
+   * and abort the analysis.
+   */
+  private static boolean isAnswer(CiHttpException e) {
+    return !e.isRetryable() || e.isThrottling();
+  }
+
+  /**
+   * Requests in flight at the same time must not share the attributes the client sets while executing them, such as
+   * the connection. Credentials and cookies are inherited from the context of the connector.
+   */
+  private HttpContext requestContext() {
+    return new BasicHttpContext(context);
+  }
+
+  /**
+   * Waits for a response until the deadline expires.
+   */
+  private HttpResponse await(Future<HttpResponse> response) throws IOException {
+    try {
+      return response.get(deadline.remaining(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    } catch (TimeoutException e) {
+      response.cancel(true);
+      throw new DeadlineExceededException();
+    } catch (CancellationException e) {
+      throw deadline.isExpired() ? new DeadlineExceededException() : new InterruptedIOException("Request cancelled");
+    } catch (InterruptedException e) {
+      response.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a response");
+    }
+  }
+
+  private <T> T read(HttpGet httpGet, HttpResponse httpResponse, ResponseReader<T> responseReader) throws IOException {
+    XMLStreamReader reader = null;
+    JsonParser parser = null;
+    CountingInputStream received = null;
+    CountingInputStream decoded = null;
     try {
       int statusCode = httpResponse.getStatusLine().getStatusCode();
+      if (statusCode == 304) {
+        ResponseCache.Entry cached = responseCache == null ? null : responseCache.get(httpGet.getURI().toString());
+        if (cached != null) {
+          LOG.debug("Not modified since cached: {}", httpGet.getURI());
+          return responseReader.fromCache(cached.getBuilds());
+        }
+      }
       if (statusCode == 404) {
         LOG.warn("Received 404 when trying to access {}", httpGet.getURI());
         return null;
       }
       if (statusCode != 200) {
-        throw new IllegalStateException("Received " + statusCode + " when trying to access " + httpGet.getURI());
-      }
-      String response = EntityUtils.toString(httpResponse.getEntity());
-      String encoding = discoverEncoding(httpResponse, response);
-      SAXReader reader = new SAXReader();
-      reader.setEncoding(encoding);
-      return reader.read(IOUtils.toInputStream(response, encoding));
-    } catch (DocumentException e) {
+        throw new CiHttpException(statusCode, getRetryAfter(httpResponse),
+          "Received " + statusCode + " when trying to access " + httpGet.getURI());
+      }
+      HttpEntity entity = httpResponse.getEntity();
+      received = new CountingInputStream(entity.getContent());
+      decoded = new CountingInputStream(decode(received, entity));
+      InputStream content = decoded;
+      T model;
+      if (isJson(entity)) {
+        parser = JsonStreams.createParser(content);
+        model = responseReader.read(parser);
+      } else {
+        reader = XmlStreams.createReader(content, getCharset(entity));
+        model = responseReader.read(reader);
+      }
+      BuildSeries cached = responseCache == null || model == null ? null : responseReader.toCache(model);
+      if (cached != null) {
+        responseCache.put(httpGet.getURI().toString(), getHeader(httpResponse, "ETag"), getHeader(httpResponse, "Last-Modified"), cached);
+      }
+      return model;
+    } catch (XMLStreamException e) {
+      if (deadline.isExpired()) {
+        throw new DeadlineExceededException();
+      }
+      throw new IllegalStateException("Unable to parse response", e);
+    } catch (JsonProcessingException e) {
+      if (deadline.isExpired()) {
+        throw new DeadlineExceededException();
+      }
       throw new IllegalStateException("Unable to parse response", e);
     } finally {
+      XmlStreams.closeQuietly(reader);
+      JsonStreams.closeQuietly(parser);
+      if (received != null) {
+        bytesReceived.addAndGet(received.getByteCount());
+      }
+      if (decoded != null) {
+        bytesDecoded.addAndGet(decoded.getByteCount());
+      }
+      // Consume what is left of the body so that the connection goes back to the pool instead of being closed
+      EntityUtils.consumeQuietly(httpResponse.getEntity());
       httpGet.releaseConnection();
     }
   }
 
-  private String discoverEncoding(HttpResponse httpResponse, String response) {
-    Pattern pattern = Pattern.compile("<\\?xml(?: \\w*=\".*\") encoding=\"([^ ]*)\".*");
-    Matcher matcher = pattern.matcher(response);
-    String encoding = "UTF-8";
-    if (matcher.matches()) {
-      encoding = matcher.group(1);
-    } else {
-      String contentType = httpResponse.getLastHeader("Content-Type").getValue();
-      pattern = Pattern.compile(".*charset=([^;]*).*");
-      matcher = pattern.matcher(contentType);
-      if (matcher.matches()) {
-        encoding = matcher.group(1);
-      }
+  /**
+   * Timeouts are worth retrying, other interruptions mean the analysis is being stopped.
+   */
+  private static boolean isInterruption(IOException e) {
+    return e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException) && !(e instanceof ConnectTimeoutException);
+  }
+
+  /**
+   * @return delay in milliseconds from a Retry-After header in seconds or as an HTTP date, negative when missing
+   */
+  @VisibleForTesting
+  static long getRetryAfter(HttpResponse httpResponse) {
+    Header header = httpResponse.getFirstHeader("Retry-After");
+    if (header == null) {
+      return -1;
+    }
+    String value = header.getValue().trim();
+    if (StringUtils.isNumeric(value) && !value.isEmpty()) {
+      return TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+    }
+    try {
+      return Math.max(0, DateUtils.parseDate(value).getTime() - System.currentTimeMillis());
+    } catch (DateParseException e) {
+      return -1;
+    }
+  }
+
+  @Nullable
+  private static String getHeader(HttpResponse httpResponse, String name) {
+    Header header = httpResponse.getFirstHeader(name);
+    return header == null ? null : header.getValue();
+  }
+
+  /**
+   * Decompresses the body as it is read, so that it is never held uncompressed in full.
+   */
+  private static InputStream decode(InputStream content, HttpEntity entity) throws IOException {
+    Header encoding = entity.getContentEncoding();
+    if (encoding == null) {
+      return content;
+    }
+    if ("gzip".equalsIgnoreCase(encoding.getValue()) || "x-gzip".equalsIgnoreCase(encoding.getValue())) {
+      return new GZIPInputStream(content);
+    }
+    if ("deflate".equalsIgnoreCase(encoding.getValue())) {
+      return inflate(content);
+    }
+    return content;
+  }
+
+  /**
+   * "deflate" should be a zlib stream, but some servers send raw deflate data: the zlib header tells them apart.
+   */
+  private static InputStream inflate(InputStream content) throws IOException {
+    PushbackInputStream in = new PushbackInputStream(content, 2);
+    int cmf = in.read();
+    int flg = in.read();
+    if (flg != -1) {
+      in.unread(flg);
+    }
+    if (cmf != -1) {
+      in.unread(cmf);
+    }
+    boolean zlib = (cmf & 0x0F) == 8 && flg != -1 && ((cmf << 8) | flg) % 31 == 0;
+    return new InflaterInputStream(in, new Inflater(!zlib));
+  }
+
+  private static boolean isJson(HttpEntity entity) {
+    try {
+      return JsonStreams.MIME_TYPE.equalsIgnoreCase(ContentType.getOrDefault(entity).getMimeType());
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  private static String getCharset(HttpEntity entity) {
+    try {
+      Charset charset = ContentType.getOrDefault(entity).getCharset();
+      return charset == null ? null : charset.name();
+    } catch (RuntimeException e) {
+      // Unknown or malformed charset, let the XML prolog decide
+      return null;
     }
-    return encoding;
   }
 }
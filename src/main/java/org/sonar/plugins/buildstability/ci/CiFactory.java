@@ -19,20 +19,65 @@
  */
 package org.sonar.plugins.buildstability.ci;
 
+import com.google.common.annotations.VisibleForTesting;
 import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sonar.plugins.buildstability.ci.api.AbstractServer;
-import org.sonar.plugins.buildstability.ci.teamcity.TeamCityServer;
+import org.sonar.plugins.buildstability.ci.api.CiBackend;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
 
 /**
+ * Creates connectors for the {@link CiBackend backends} found on the class path, which are looked up once per JVM.
+ *
  * @author Evgeny Mandrikov
  */
 public final class CiFactory {
+  private static final Logger LOG = LoggerFactory.getLogger(CiFactory.class);
+  private static final Map<String, CiBackend> BACKENDS = loadBackends();
+
   /**
    * Hide utility-class constructor.
    */
   private CiFactory() {
   }
 
+  /**
+   * Backends by lower-case system name. The class loader of the plugin is used, not the context class loader of the
+   * analysis which does not see the classes of plugins.
+   */
+  private static Map<String, CiBackend> loadBackends() {
+    Map<String, CiBackend> backends = new LinkedHashMap<String, CiBackend>();
+    for (CiBackend backend : ServiceLoader.load(CiBackend.class, CiFactory.class.getClassLoader())) {
+      String system = backend.getSystem().toLowerCase(Locale.ENGLISH);
+      if (backends.containsKey(system)) {
+        LOG.warn("Ignoring {}, {} is already supported by {}", backend.getClass().getName(), backend.getSystem(),
+          backends.get(system).getClass().getName());
+      } else {
+        backends.put(system, backend);
+      }
+    }
+    return Collections.unmodifiableMap(backends);
+  }
+
+  @VisibleForTesting
+  static Map<String, CiBackend> getBackends() {
+    return BACKENDS;
+  }
+
+  @CheckForNull
+  static CiBackend getBackend(String system) {
+    return BACKENDS.get(StringUtils.defaultString(system).toLowerCase(Locale.ENGLISH));
+  }
+
   public static String getSystem(String ciUrl) {
     return StringUtils.substringBefore(ciUrl, ":");
   }
@@ -42,30 +87,48 @@ public final class CiFactory {
   }
 
   public static CiConnector create(String ciUrl, String username, String password, boolean useJSecurityCheck) {
-    return create(getSystem(ciUrl), getUrl(ciUrl), username, password, useJSecurityCheck);
+    return create(getSystem(ciUrl), getUrl(ciUrl), username, password, null, useJSecurityCheck);
   }
 
   public static CiConnector create(String system, String url, String username, String password, boolean useJSecurityCheck) {
-    AbstractServer server;
-    String pattern;
-    if (TeamCityServer.SYSTEM.equalsIgnoreCase(system)) {
-      server = new TeamCityServer();
-      pattern = TeamCityServer.PATTERN;
-    } else {
+    return create(system, url, username, password, null, useJSecurityCheck);
+  }
+
+  /**
+   * @param token access token, used instead of the username and password when not blank
+   * @return null when no backend supports the system, or the URL does not match its pattern
+   */
+  @CheckForNull
+  public static CiConnector create(String system, String url, String username, String password, @Nullable String token,
+    boolean useJSecurityCheck) {
+    CiBackend backend = getBackend(system);
+    if (backend == null) {
       return null;
     }
-    server.setUsername(username);
-    server.setPassword(password);
-
+    String pattern = backend.getUrlPattern();
     int i = url.indexOf(pattern);
     if (i == -1) {
       return null;
     }
-    String base = url.substring(0, i);
-    String key = url.substring(i + pattern.length());
-    server.setHost(base);
-    server.setKey(key);
+    AbstractServer server = backend.createServer();
+    server.setUsername(username);
+    server.setPassword(password);
+    server.setToken(token);
+    server.setUseJSecurityCheck(useJSecurityCheck);
+    server.setHost(url.substring(0, i));
+    server.setKey(url.substring(i + pattern.length()));
+
+    CiConnector connector = new CiConnector(server);
+    configure(connector, backend);
+    return connector;
+  }
 
-    return new CiConnector(server);
+  /**
+   * Lists with details save a request per build, and lists are paged the way the server does.
+   */
+  @VisibleForTesting
+  static void configure(CiConnector connector, CiBackend backend) {
+    connector.setBulkList(backend.isBulkListSupported());
+    connector.setPagination(backend.getPagination());
   }
 }
@@ -0,0 +1,66 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+/**
+ * Unexpected HTTP status returned by the CI server.
+ */
+public class CiHttpException extends IllegalStateException {
+  private final int statusCode;
+  private final long retryAfter;
+
+  public CiHttpException(int statusCode, String message) {
+    this(statusCode, -1, message);
+  }
+
+  /**
+   * @param retryAfter delay in milliseconds asked by the server with Retry-After, negative when there is none
+   */
+  public CiHttpException(int statusCode, long retryAfter, String message) {
+    super(message);
+    this.statusCode = statusCode;
+    this.retryAfter = retryAfter;
+  }
+
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * True when the server asks us to slow down: 429 Too Many Requests or 503 Service Unavailable.
+   */
+  public boolean isThrottling() {
+    return statusCode == 429 || statusCode == 503;
+  }
+
+  /**
+   * True when the same request may succeed later: throttling, 502 Bad Gateway or 504 Gateway Timeout.
+   */
+  public boolean isRetryable() {
+    return isThrottling() || statusCode == 502 || statusCode == 504;
+  }
+
+  /**
+   * @return delay in milliseconds asked by the server, negative when there is none
+   */
+  public long getRetryAfter() {
+    return retryAfter;
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops sending requests to a CI server host after several consecutive failures, so that an unhealthy server makes
+ * the analysis fail fast instead of waiting for timeouts request after request.
+ * <p/>
+ * Once open, the circuit lets a single trial request through after {@value #OPEN_DURATION_SECONDS} seconds: it
+ * closes again if that request succeeds, and stays open for another period otherwise. Breakers are shared by all the
+ * connectors of the JVM, like the HTTP client.
+ *
+ * @author Ivan Li
+ */
+class CircuitBreaker {
+  private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+  static final int FAILURE_THRESHOLD = 5;
+  static final long OPEN_DURATION_SECONDS = 30;
+  private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<String, CircuitBreaker>();
+
+  private final String host;
+  private final int failureThreshold;
+  private final long openDuration;
+  private int failures;
+  private long openedAt;
+  private boolean open;
+  private boolean trialInFlight;
+
+  CircuitBreaker(String host, int failureThreshold, long openDuration, TimeUnit unit) {
+    this.host = host;
+    this.failureThreshold = failureThreshold;
+    this.openDuration = unit.toNanos(openDuration);
+  }
+
+  static CircuitBreaker forHost(String host) {
+    CircuitBreaker breaker = BREAKERS.get(host);
+    if (breaker == null) {
+      BREAKERS.putIfAbsent(host, new CircuitBreaker(host, FAILURE_THRESHOLD, OPEN_DURATION_SECONDS, TimeUnit.SECONDS));
+      breaker = BREAKERS.get(host);
+    }
+    return breaker;
+  }
+
+  @VisibleForTesting
+  static void register(String host, CircuitBreaker breaker) {
+    BREAKERS.put(host, breaker);
+  }
+
+  @VisibleForTesting
+  static void resetAll() {
+    BREAKERS.clear();
+  }
+
+  /**
+   * @throws IllegalStateException when the circuit is open
+   */
+  synchronized void acquire() {
+    if (!open) {
+      return;
+    }
+    if (!trialInFlight && System.nanoTime() - openedAt >= openDuration) {
+      LOG.debug("Sending a trial request to {}", host);
+      trialInFlight = true;
+      return;
+    }
+    throw new IllegalStateException("Too many failures from " + host + ", not sending requests for "
+      + TimeUnit.NANOSECONDS.toSeconds(openDuration) + " seconds");
+  }
+
+  synchronized void recordSuccess() {
+    if (open) {
+      LOG.info("{} answers again", host);
+    }
+    failures = 0;
+    open = false;
+    trialInFlight = false;
+  }
+
+  synchronized void recordFailure() {
+    failures++;
+    if (trialInFlight || !open && failures >= failureThreshold) {
+      if (!open) {
+        LOG.warn("{} consecutive failures from {}, failing fast for {} seconds", failures, host, TimeUnit.NANOSECONDS.toSeconds(openDuration));
+      }
+      open = true;
+      trialInFlight = false;
+      openedAt = System.nanoTime();
+    }
+  }
+
+  /**
+   * Records no outcome for a request given up by the client, on an expired deadline or an interruption: the server
+   * is not to blame, only the trial slot of a half-open circuit is freed.
+   */
+  synchronized void release() {
+    trialInFlight = false;
+  }
+
+  synchronized boolean isOpen() {
+    return open;
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.http.client.methods.AbortableHttpRequest;
+
+import javax.annotation.CheckForNull;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time after which no more requests are sent to the CI server, and requests in flight are aborted.
+ *
+ * @author Ivan Li
+ */
+public final class Deadline {
+  private static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+  private final long expiresAt;
+
+  private Deadline(long expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+
+  /**
+   * @param timeout no deadline when 0 or negative
+   */
+  public static Deadline after(long timeout, TimeUnit unit) {
+    return timeout <= 0 ? NONE : new Deadline(System.nanoTime() + unit.toNanos(timeout));
+  }
+
+  public static Deadline none() {
+    return NONE;
+  }
+
+  public boolean isExpired() {
+    return this != NONE && System.nanoTime() - expiresAt >= 0;
+  }
+
+  public long remaining(TimeUnit unit) {
+    if (this == NONE) {
+      return Long.MAX_VALUE;
+    }
+    return unit.convert(Math.max(0, expiresAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+  }
+
+  void check() throws DeadlineExceededException {
+    if (isExpired()) {
+      throw new DeadlineExceededException();
+    }
+  }
+
+  /**
+   * Aborts the given request if it is still running when the deadline expires.
+   *
+   * @return to be cancelled once the request completed, null when there is no deadline
+   */
+  @CheckForNull
+  Future<?> abortOnExpiry(final AbortableHttpRequest request) {
+    if (this == NONE) {
+      return null;
+    }
+    return Timer.INSTANCE.schedule(new Runnable() {
+      @Override
+      public void run() {
+        request.abort();
+      }
+    }, remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Number of aborts scheduled and not cancelled yet.
+   */
+  @VisibleForTesting
+  static int getPendingAborts() {
+    return Timer.INSTANCE.getQueue().size();
+  }
+
+  private static final class Timer {
+    private static final ScheduledThreadPoolExecutor INSTANCE = create();
+
+    private Timer() {
+    }
+
+    /**
+     * Nearly every abort is cancelled once its request completed, long before the deadline: cancelled aborts are
+     * removed at once instead of piling up in the queue until they are due.
+     */
+    private static ScheduledThreadPoolExecutor create() {
+      ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "build-stability-deadline");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      timer.setRemoveOnCancelPolicy(true);
+      return timer;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+import java.util.BitSet;
+
+/**
+ * Chooses the builds whose details are fetched when the CI server only lists build numbers and statuses.
+ * <p/>
+ * Counts and success rates come from the statuses of the list alone. Details are fetched in tiers:
+ * <ul>
+ * <li>both ends of the list and the builds on each side of a status change, which are the failures and fixes the
+ * time to fix is measured from;</li>
+ * <li>one successful build out of {@code 1 / durationSample}, the samples of duration measures;</li>
+ * <li>builds bisecting the list around each window start, until the builds on each side of it are known, so that
+ * every build is counted in the right window.</li>
+ * </ul>
+ * Other builds are given a timestamp interpolated between their known neighbours, the list being in start order.
+ *
+ * @author Ivan Li
+ */
+public class DetailPlanner {
+  private final int stride;
+  private final long[] boundaries;
+
+  /**
+   * @param durationSample share of successful builds whose duration is measured, between 0 and 1
+   * @param boundaries timestamps which must not fall between two builds of the wrong side, such as window starts
+   */
+  public DetailPlanner(double durationSample, long... boundaries) {
+    this.stride = durationSample <= 0 ? Integer.MAX_VALUE : (int) Math.max(1, Math.round(1 / Math.min(1, durationSample)));
+    this.boundaries = boundaries.clone();
+  }
+
+  /**
+   * Which builds the planner samples, window starts aside: planners sampling the same way fetch the details of the
+   * same builds.
+   */
+  public String getSampling() {
+    return "stride:" + stride;
+  }
+
+  /**
+   * True when the number of details fetched does not depend on the number of builds. The list of builds is then asked
+   * for their numbers and statuses only, since a list carrying every detail would cost as much as the builds.
+   */
+  public boolean isFixedCost() {
+    return false;
+  }
+
+  /**
+   * Plans can only be made when every build of the list tells its status.
+   */
+  public boolean canPlan(BuildSeries summaries) {
+    for (int i = 0; i < summaries.size(); i++) {
+      if (summaries.getResult(i) == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * First tier: ends of the list, status changes and duration samples.
+   */
+  public BitSet plan(BuildSeries builds) {
+    BitSet selected = new BitSet(builds.size());
+    int last = builds.size() - 1;
+    if (last < 0) {
+      return selected;
+    }
+    selected.set(0);
+    selected.set(last);
+    int successful = 0;
+    for (int i = 0; i <= last; i++) {
+      if (i < last && builds.isSuccessful(i) != builds.isSuccessful(i + 1)) {
+        selected.set(i);
+        selected.set(i + 1);
+      }
+      if (builds.isSuccessful(i) && successful++ % stride == 0) {
+        selected.set(i);
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * Next tier: for each boundary lying between two known builds which are not neighbours, the build halfway.
+   *
+   * @param known builds fetched, or given up
+   * @return empty once every boundary is settled
+   */
+  public BitSet refine(BuildSeries builds, BitSet known) {
+    BitSet selected = new BitSet(builds.size());
+    for (long boundary : boundaries) {
+      int previous = -1;
+      for (int i = known.nextSetBit(0); i >= 0; i = known.nextSetBit(i + 1)) {
+        if (!hasDetails(builds, i)) {
+          continue;
+        }
+        if (previous >= 0 && isBetween(boundary, builds.getTimestamp(previous), builds.getTimestamp(i))) {
+          int middle = middle(known, previous, i);
+          if (middle >= 0) {
+            selected.set(middle);
+          }
+        }
+        previous = i;
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * Gives builds without details a timestamp interpolated between the closest builds with details.
+   */
+  public void estimate(BuildSeries builds) {
+    int previous = -1;
+    for (int i = 0; i <= builds.size(); i++) {
+      if (i < builds.size() && !hasDetails(builds, i)) {
+        continue;
+      }
+      int from = previous < 0 ? i : previous;
+      int to = i == builds.size() ? previous : i;
+      if (from >= 0 && to >= 0) {
+        for (int j = previous + 1; j < i; j++) {
+          builds.estimate(j, interpolate(builds.getTimestamp(from), builds.getTimestamp(to), from, to, j));
+        }
+      }
+      previous = i;
+    }
+  }
+
+  @VisibleForTesting
+  static long interpolate(long fromTimestamp, long toTimestamp, int from, int to, int index) {
+    if (from == to) {
+      return fromTimestamp;
+    }
+    return fromTimestamp + (toTimestamp - fromTimestamp) * (index - from) / (to - from);
+  }
+
+  private static boolean hasDetails(BuildSeries builds, int index) {
+    return builds.getTimestamp(index) > 0 && !builds.isEstimated(index);
+  }
+
+  private static boolean isBetween(long boundary, long first, long second) {
+    return Math.min(first, second) < boundary && boundary <= Math.max(first, second);
+  }
+
+  /**
+   * @return an unknown build halfway between the given ones, negative when all those between them are known
+   */
+  private static int middle(BitSet known, int from, int to) {
+    int middle = (from + to) >>> 1;
+    int unknown = known.nextClearBit(middle);
+    if (unknown > from && unknown < to) {
+      return unknown;
+    }
+    unknown = known.previousClearBit(middle);
+    return unknown > from && unknown < to ? unknown : -1;
+  }
+}
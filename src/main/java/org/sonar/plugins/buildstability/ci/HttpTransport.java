@@ -0,0 +1,52 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.protocol.HttpContext;
+
+import javax.annotation.Nullable;
+
+import java.util.concurrent.Future;
+
+/**
+ * Sends the requests of a {@link CiConnector} to the CI server.
+ *
+ * @author Ivan Li
+ */
+public interface HttpTransport {
+
+  /**
+   * Sends the request. The returned future completes, and the callback is notified, once the response is received.
+   * <p/>
+   * Blocking transports return a completed future whose entity is streamed from the connection. Non-blocking
+   * transports return at once and complete the future with a buffered entity, without holding the calling thread while
+   * the request is in flight.
+   */
+  Future<HttpResponse> send(HttpGet request, HttpContext context, @Nullable FutureCallback<HttpResponse> callback);
+
+  /**
+   * True when {@link #send} returns before the response is received, so that many requests can be in flight at once
+   * from a single thread.
+   */
+  boolean isNonBlocking();
+}
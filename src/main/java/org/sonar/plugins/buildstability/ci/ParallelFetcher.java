@@ -0,0 +1,216 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent requests against the CI server on a bounded pool of threads and returns their results
+ * in submission order.
+ * <p/>
+ * The number of requests in flight adapts to the server (additive increase, multiplicative decrease): one more
+ * slot after a full round of fast answers, half of the slots as soon as the server throttles us with 429/503
+ * or answers much slower than the best latency seen so far. Throttled requests are retried here, after the delay
+ * asked by the server if any, hence requests must not retry throttling themselves.
+ * <p/>
+ * Requests still waiting or running when the deadline expires are given up: their result is null.
+ *
+ * @author Ivan Li
+ */
+class ParallelFetcher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ParallelFetcher.class);
+  private static final int MAX_ATTEMPTS = 3;
+  private static final long THROTTLE_PAUSE = 500;
+  /**
+   * A request this many times slower than the fastest one is considered a sign of congestion.
+   */
+  private static final int SLOW_FACTOR = 4;
+
+  private final int maxConcurrency;
+  private final Deadline deadline;
+  private int expired;
+  private int limit;
+  private int inFlight;
+  private int fastAnswers;
+  private long minLatency = Long.MAX_VALUE;
+  private long lastDecrease;
+
+  ParallelFetcher(int maxConcurrency) {
+    this(maxConcurrency, Deadline.none());
+  }
+
+  ParallelFetcher(int maxConcurrency, Deadline deadline) {
+    this.maxConcurrency = Math.max(1, maxConcurrency);
+    this.limit = this.maxConcurrency;
+    this.deadline = deadline;
+  }
+
+  <T> List<T> fetchAll(List<Callable<T>> requests) throws IOException {
+    if (requests.isEmpty()) {
+      return Collections.emptyList();
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrency, requests.size()), new DaemonThreadFactory());
+    try {
+      List<Future<T>> futures = new ArrayList<Future<T>>(requests.size());
+      for (Callable<T> request : requests) {
+        futures.add(executor.submit(new Throttled<T>(request)));
+      }
+      List<T> results = new ArrayList<T>(futures.size());
+      for (Future<T> future : futures) {
+        results.add(get(future));
+      }
+      if (expired > 0) {
+        LOG.debug("Deadline expired, {} requests given up", expired);
+      }
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Number of requests given up because the deadline expired.
+   */
+  int getExpired() {
+    return expired;
+  }
+
+  private <T> T get(Future<T> future) throws IOException {
+    try {
+      return future.get(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      expired++;
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while fetching builds");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof DeadlineExceededException) {
+        expired++;
+        return null;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private synchronized long acquire() throws InterruptedException, DeadlineExceededException {
+    while (inFlight >= limit) {
+      deadline.check();
+      wait(Math.max(1, Math.min(deadline.remaining(TimeUnit.MILLISECONDS), Integer.MAX_VALUE)));
+    }
+    deadline.check();
+    inFlight++;
+    return System.nanoTime();
+  }
+
+  private synchronized void release(long start, boolean throttled) {
+    inFlight--;
+    long latency = System.nanoTime() - start;
+    boolean slow = minLatency != Long.MAX_VALUE && latency > SLOW_FACTOR * minLatency;
+    minLatency = Math.min(minLatency, latency);
+    if (throttled || slow) {
+      // Only react once to a burst of bad answers: ignore requests sent before the previous decrease
+      if (start > lastDecrease && limit > 1) {
+        limit = Math.max(1, limit / 2);
+        lastDecrease = System.nanoTime();
+        fastAnswers = 0;
+        LOG.debug("CI server is {}, reducing concurrency to {}", throttled ? "throttling" : "slowing down", limit);
+      }
+    } else if (limit < maxConcurrency && ++fastAnswers >= limit) {
+      limit++;
+      fastAnswers = 0;
+    }
+    notifyAll();
+  }
+
+  private class Throttled<T> implements Callable<T> {
+    private final Callable<T> request;
+
+    Throttled(Callable<T> request) {
+      this.request = request;
+    }
+
+    @Override
+    public T call() throws Exception {
+      for (int attempt = 1;; attempt++) {
+        long start = acquire();
+        boolean throttled = false;
+        long pause;
+        try {
+          return request.call();
+        } catch (CiHttpException e) {
+          throttled = e.isThrottling();
+          if (!throttled || attempt >= MAX_ATTEMPTS) {
+            throw e;
+          }
+          pause = e.getRetryAfter() >= 0 ? e.getRetryAfter() : attempt * THROTTLE_PAUSE;
+        } finally {
+          release(start, throttled);
+        }
+        if (pause >= deadline.remaining(TimeUnit.MILLISECONDS)) {
+          throw new DeadlineExceededException();
+        }
+        Thread.sleep(pause);
+      }
+    }
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "build-stability-fetcher-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
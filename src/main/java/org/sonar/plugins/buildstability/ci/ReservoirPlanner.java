@@ -0,0 +1,96 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Approximate mode for build configurations running too many builds to fetch the details of all of them: details are
+ * fetched for both ends of the list and for a uniform sample of a fixed number of successful builds, drawn by
+ * reservoir sampling. The cost of an analysis is thus the same however busy the build configuration is.
+ * <p/>
+ * Counts and success rates still come from the statuses of the list. Durations are measured on the sample, other
+ * timestamps are interpolated, so that times to fix and windows are approximate too. Successful builds at the ends of
+ * the list are measured as well, a negligible bias for the number of builds this mode is meant for.
+ *
+ * @author Ivan Li
+ */
+public class ReservoirPlanner extends DetailPlanner {
+  private final int size;
+  private final Random random;
+
+  /**
+   * @param size number of successful builds whose details are fetched
+   */
+  public ReservoirPlanner(int size) {
+    this(size, new Random());
+  }
+
+  @VisibleForTesting
+  ReservoirPlanner(int size, Random random) {
+    super(0);
+    this.size = size;
+    this.random = random;
+  }
+
+  @Override
+  public String getSampling() {
+    return "reservoir:" + size;
+  }
+
+  @Override
+  public boolean isFixedCost() {
+    return true;
+  }
+
+  /**
+   * Ends of the list, for the interpolation of timestamps, and the reservoir of successful builds. There are no other
+   * tiers.
+   */
+  @Override
+  public BitSet plan(BuildSeries builds) {
+    BitSet selected = new BitSet(builds.size());
+    if (builds.size() == 0) {
+      return selected;
+    }
+    selected.set(0);
+    selected.set(builds.size() - 1);
+    int[] reservoir = new int[size];
+    int seen = 0;
+    for (int i = 0; i < builds.size(); i++) {
+      if (builds.isSuccessful(i)) {
+        // Algorithm R: the i-th successful build replaces a random one of the reservoir with probability size / i
+        int slot = seen < size ? seen : random.nextInt(seen + 1);
+        if (slot < size) {
+          reservoir[slot] = i;
+        }
+        seen++;
+      }
+    }
+    for (int i = 0; i < Math.min(seen, size); i++) {
+      selected.set(reservoir[i]);
+    }
+    return selected;
+  }
+}
@@ -0,0 +1,319 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Validators and parsed builds of the responses received from a CI server, so that requests can be made conditional
+ * with If-None-Match and If-Modified-Since, and a 304 answered from the builds parsed the first time.
+ * <p/>
+ * One cache is kept per directory and shared by the connectors of the JVM, URLs telling CI servers apart. The least
+ * recently used responses are evicted once the entries would take more than {@link #MAX_SIZE} bytes in the file. The
+ * cache is loaded from its file when first used and written back by {@link #save()}, under an exclusive file lock and
+ * through an atomic rename.
+ * <p/>
+ * Binary format: magic, version, number of entries, then for each entry its URL, ETag, Last-Modified and builds:
+ * number, start timestamp, duration in milliseconds, success and optional result.
+ *
+ * @author Ivan Li
+ */
+public class ResponseCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResponseCache.class);
+  private static final int MAGIC = 0x42535243;
+  private static final byte VERSION = 3;
+  static final long MAX_SIZE = 1024 * 1024;
+  private static final ConcurrentMap<String, ResponseCache> CACHES = new ConcurrentHashMap<String, ResponseCache>();
+  private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+  private final File file;
+  private final long maxSize;
+  private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private long size;
+  private boolean loaded;
+  private boolean modified;
+
+  @VisibleForTesting
+  ResponseCache(File file, long maxSize) {
+    this.file = file;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Shared cache of the responses stored in the given directory.
+   */
+  public static ResponseCache forDirectory(File directory) {
+    File file = new File(directory, "responses.bin");
+    String path = file.getAbsolutePath();
+    CACHES.putIfAbsent(path, new ResponseCache(file, MAX_SIZE));
+    return CACHES.get(path);
+  }
+
+  @CheckForNull
+  public synchronized Entry get(String url) {
+    load();
+    return entries.get(url);
+  }
+
+  /**
+   * Keeps a response which carries at least one validator.
+   */
+  public synchronized void put(String url, @Nullable String etag, @Nullable String lastModified, BuildSeries builds) {
+    if (etag == null && lastModified == null) {
+      return;
+    }
+    load();
+    Entry entry = new Entry(url, StringUtils.defaultString(etag), StringUtils.defaultString(lastModified), copy(builds));
+    Entry previous = entries.put(url, entry);
+    size += entry.size - (previous == null ? 0 : previous.size);
+    evict();
+    modified = true;
+  }
+
+  /**
+   * Removes the least recently used responses until the others fit in the maximum size.
+   */
+  private void evict() {
+    for (Iterator<Entry> it = entries.values().iterator(); size > maxSize && it.hasNext();) {
+      size -= it.next().size;
+      it.remove();
+    }
+  }
+
+  private void resize() {
+    size = 0;
+    for (Entry entry : entries.values()) {
+      size += entry.size;
+    }
+    evict();
+  }
+
+  /**
+   * Writes the cache back to its file when responses were added since it was loaded.
+   */
+  public synchronized void save() throws IOException {
+    if (!modified) {
+      return;
+    }
+    File directory = file.getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create response cache directory " + directory);
+    }
+    // File locks are held by the JVM, they do not exclude threads
+    synchronized (lockFor(file)) {
+      RandomAccessFile lockFile = new RandomAccessFile(new File(file.getPath() + ".lock"), "rw");
+      try {
+        // Other analyses of the agent may save the same cache at the same time
+        FileLock lock = lockFile.getChannel().lock();
+        try {
+          merge(read());
+          write(directory);
+        } finally {
+          lock.release();
+        }
+      } finally {
+        IOUtils.closeQuietly(lockFile);
+      }
+    }
+    modified = false;
+  }
+
+  /**
+   * Keeps the responses another analysis saved meanwhile, as less recently used than those of this one.
+   */
+  private void merge(Map<String, Entry> saved) {
+    saved.keySet().removeAll(entries.keySet());
+    saved.putAll(entries);
+    entries.clear();
+    entries.putAll(saved);
+    resize();
+  }
+
+  private static Object lockFor(File file) {
+    String path = file.getAbsolutePath();
+    LOCKS.putIfAbsent(path, new Object());
+    return LOCKS.get(path);
+  }
+
+  private void write(File directory) throws IOException {
+    File tmp = File.createTempFile("responses", ".tmp", directory);
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+      out.writeInt(entries.size());
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeUTF(entry.getValue().etag);
+        out.writeUTF(entry.getValue().lastModified);
+        BuildSeries builds = entry.getValue().builds;
+        out.writeInt(builds.size());
+        for (int i = 0; i < builds.size(); i++) {
+          out.writeUTF(builds.getNumber(i));
+          out.writeLong(builds.getTimestamp(i));
+          out.writeInt(builds.getDuration(i));
+          out.writeBoolean(builds.isSuccessful(i));
+          out.writeBoolean(builds.getResult(i) != null);
+          if (builds.getResult(i) != null) {
+            out.writeUTF(builds.getResult(i));
+          }
+        }
+      }
+      out.close();
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      IOUtils.closeQuietly(out);
+      FileUtils.deleteQuietly(tmp);
+    }
+  }
+
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    entries.putAll(read());
+    resize();
+  }
+
+  /**
+   * Entries of the file, least recently used first, none when it cannot be read.
+   */
+  private Map<String, Entry> read() {
+    Map<String, Entry> read = new LinkedHashMap<String, Entry>();
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+        LOG.warn("Ignoring response cache {} written in an unknown format", file);
+        return read;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String url = in.readUTF();
+        String etag = in.readUTF();
+        String lastModified = in.readUTF();
+        int size = in.readInt();
+        BuildSeries builds = new BuildSeries(size);
+        for (int j = 0; j < size; j++) {
+          String number = in.readUTF();
+          long timestamp = in.readLong();
+          int duration = in.readInt();
+          boolean successful = in.readBoolean();
+          String result = in.readBoolean() ? in.readUTF() : null;
+          builds.add(number, timestamp, result, successful, duration);
+        }
+        read.put(url, new Entry(url, etag, lastModified, builds));
+      }
+    } catch (FileNotFoundException e) {
+      // Nothing cached yet
+    } catch (IOException e) {
+      LOG.warn("Ignoring unreadable response cache " + file, e);
+      read.clear();
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+    return read;
+  }
+
+  private static BuildSeries copy(BuildSeries builds) {
+    BuildSeries copy = new BuildSeries(builds.size());
+    for (int i = 0; i < builds.size(); i++) {
+      copy.add(builds, i);
+    }
+    return copy;
+  }
+
+  public static final class Entry {
+    private final String etag;
+    private final String lastModified;
+    private final BuildSeries builds;
+    /**
+     * Bytes taken in the file, counting one byte per character of strings.
+     */
+    private final long size;
+
+    Entry(String url, String etag, String lastModified, BuildSeries builds) {
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.builds = builds;
+      long bytes = sizeOf(url) + sizeOf(etag) + sizeOf(lastModified) + 4;
+      for (int i = 0; i < builds.size(); i++) {
+        bytes += sizeOf(builds.getNumber(i)) + 8 + 4 + 1 + 1 + (builds.getResult(i) == null ? 0 : sizeOf(builds.getResult(i)));
+      }
+      this.size = bytes;
+    }
+
+    private static int sizeOf(String utf) {
+      return 2 + utf.length();
+    }
+
+    /**
+     * @return empty when the response had no ETag
+     */
+    public String getEtag() {
+      return etag;
+    }
+
+    /**
+     * @return empty when the response had no Last-Modified date
+     */
+    public String getLastModified() {
+      return lastModified;
+    }
+
+    /**
+     * A copy of the cached builds, which the caller may modify.
+     */
+    public BuildSeries getBuilds() {
+      return copy(builds);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import java.io.InterruptedIOException;
+import java.util.Random;
+
+/**
+ * Exponential backoff with full jitter between attempts of an idempotent request: the pause before attempt n+1 is
+ * drawn between 0 and base * 2^(n-1), capped. A delay asked by the server with Retry-After is honoured as is: the
+ * caller gives up when it does not fit in its deadline.
+ *
+ * @author Ivan Li
+ */
+class RetryPolicy {
+  static final int DEFAULT_MAX_ATTEMPTS = 4;
+  static final long DEFAULT_BASE_DELAY = 500;
+  static final long DEFAULT_MAX_DELAY = 10000;
+
+  private final int maxAttempts;
+  private final long baseDelay;
+  private final long maxDelay;
+  private final Random random = new Random();
+
+  RetryPolicy() {
+    this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+  }
+
+  RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.baseDelay = baseDelay;
+    this.maxDelay = maxDelay;
+  }
+
+  int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * @param attempt number of the attempt that just failed, starting at 1
+   * @param retryAfter delay in milliseconds asked by the server, or a negative value
+   */
+  long getDelay(int attempt, long retryAfter) {
+    if (retryAfter >= 0) {
+      return retryAfter;
+    }
+    long ceiling = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+    return (long) (random.nextDouble() * ceiling);
+  }
+
+  void pause(long delay) throws InterruptedIOException {
+    if (delay <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(delay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to retry");
+    }
+  }
+}
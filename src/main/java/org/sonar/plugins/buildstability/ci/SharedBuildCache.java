@@ -0,0 +1,201 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.buildstability.ci.api.AbstractServer;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds fetched during this JVM, shared by the modules and projects of a batch which analyse the same build type.
+ * <p/>
+ * Entries are keyed by CI server host, build type, first day of the analysed period, credentials and
+ * {@link CiConnector#getFetchMode() fetch mode}, so that builds are neither shown to a module which could not read them
+ * nor reused with details fetched for other settings. Concurrent callers for the same key wait for the fetch in
+ * progress instead of sending their own requests, so a multi-project analysis hits the CI server once per build type.
+ * Failed and incomplete fetches are not kept, and the least recently used entries are evicted beyond
+ * {@link #MAX_ENTRIES}. Entries expire {@value #TTL_MINUTES} minutes after their fetch, so that a long-lived JVM still
+ * sees the builds finished since then.
+ *
+ * @author Ivan Li
+ */
+public class SharedBuildCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SharedBuildCache.class);
+  static final int MAX_ENTRIES = 16;
+  static final long TTL_MINUTES = 5;
+
+  private final Map<Key, Entry> entries;
+  private final long ttl;
+
+  @VisibleForTesting
+  SharedBuildCache(final int maxEntries, long ttl, TimeUnit unit) {
+    this.ttl = unit.toNanos(ttl);
+    entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  public static SharedBuildCache get() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * Returns the builds started since the given date, reusing those fetched by another module when possible.
+   * Each caller gets its own copy, which it may sort or modify.
+   */
+  public BuildSeries getBuildsSince(final CiConnector connector, final Date date, final BuildHistoryCache history) throws IOException {
+    AbstractServer server = connector.getServer();
+    Key key = new Key(server, DateUtils.truncate(date, Calendar.DAY_OF_MONTH).getTime(), connector.getFetchMode());
+    Entry entry = new Entry(date.getTime(), new FutureTask<BuildSeries>(new Callable<BuildSeries>() {
+      @Override
+      public BuildSeries call() throws IOException {
+        return history.getBuildsSince(connector, date);
+      }
+    }));
+
+    Entry existing;
+    synchronized (entries) {
+      existing = entries.get(key);
+      // Builds fetched since a later date would miss some of those asked for
+      if (existing == null || existing.since > date.getTime() || existing.isExpired(ttl)) {
+        entries.put(key, entry);
+        existing = null;
+      }
+    }
+    if (existing == null) {
+      entry.builds.run();
+      entry.fetchedAt = System.nanoTime();
+    } else {
+      LOG.debug("Reusing builds of {} fetched by another module", server.getKey());
+      entry = existing;
+    }
+
+    try {
+      BuildSeries builds = entry.builds.get();
+      if (builds.getCoverage() < 1) {
+        remove(key, entry);
+      }
+      return copySince(builds, date.getTime());
+    } catch (ExecutionException e) {
+      remove(key, entry);
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for builds fetched by another module");
+    }
+  }
+
+  private void remove(Key key, Entry entry) {
+    synchronized (entries) {
+      if (entries.get(key) == entry) {
+        entries.remove(key);
+      }
+    }
+  }
+
+  private static BuildSeries copySince(BuildSeries builds, long oldest) {
+    BuildSeries copy = new BuildSeries(builds.size());
+    for (int i = 0; i < builds.size(); i++) {
+      if (builds.getTimestamp(i) >= oldest) {
+        copy.add(builds, i);
+      }
+    }
+    copy.setCoverage(builds.getCoverage());
+    return copy;
+  }
+
+  private static final class Holder {
+    private static final SharedBuildCache INSTANCE = new SharedBuildCache(MAX_ENTRIES, TTL_MINUTES, TimeUnit.MINUTES);
+  }
+
+  private static class Entry {
+    private final long since;
+    private final FutureTask<BuildSeries> builds;
+    /**
+     * Zero while the fetch is in progress: callers wait for it however long it takes.
+     */
+    private volatile long fetchedAt;
+
+    Entry(long since, FutureTask<BuildSeries> builds) {
+      this.since = since;
+      this.builds = builds;
+    }
+
+    boolean isExpired(long ttl) {
+      return fetchedAt != 0 && System.nanoTime() - fetchedAt >= ttl;
+    }
+  }
+
+  private static class Key {
+    private final String host;
+    private final String buildType;
+    private final long day;
+    private final String credentials;
+    private final String fetchMode;
+
+    Key(AbstractServer server, long day, String fetchMode) {
+      this.host = server.getHost();
+      this.buildType = server.getKey();
+      this.day = day;
+      // Only a digest of the secrets is kept
+      this.credentials = DigestUtils.sha1Hex(StringUtils.defaultString(server.getUsername()) + "\n"
+        + StringUtils.defaultString(server.getPassword()) + "\n" + StringUtils.defaultString(server.getToken()));
+      this.fetchMode = fetchMode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return day == other.day && Objects.equal(host, other.host) && Objects.equal(buildType, other.buildType)
+        && credentials.equals(other.credentials) && Objects.equal(fetchMode, other.fetchMode);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(host, buildType, day, credentials, fetchMode);
+    }
+  }
+}
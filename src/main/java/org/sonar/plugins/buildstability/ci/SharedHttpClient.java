@@ -0,0 +1,162 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pooled HTTP client shared by every {@link CiConnector} of the JVM, so that analyses of several modules or projects
+ * against the same CI server reuse open connections instead of paying a TCP and TLS handshake per request.
+ * <p/>
+ * All HTTPS connections go through the same system SSL context, which lets JSSE resume TLS sessions when a new
+ * connection has to be opened. Connections idle for longer than {@link #IDLE_TIMEOUT} are evicted by a daemon thread.
+ * Connectors keep their credentials and cookies in their own {@link HttpContext}, never in the shared client.
+ * <p/>
+ * The executor used by {@link SharedPoolHttpTransport} is only created when first needed. Its {@link #WORKER_THREADS}
+ * daemon threads execute requests with the same pooled client, so they never wait for more connections than a single
+ * host may open.
+ *
+ * @author Ivan Li
+ */
+public final class SharedHttpClient {
+  static final int MAX_CONNECTIONS_PER_HOST = 16;
+  static final int MAX_CONNECTIONS = 64;
+  static final int CONNECT_TIMEOUT = 10 * 1000;
+  static final int SOCKET_TIMEOUT = 30 * 1000;
+  static final long IDLE_TIMEOUT = 60 * 1000;
+  static final int WORKER_THREADS = MAX_CONNECTIONS_PER_HOST;
+
+  /**
+   * Hide utility-class constructor.
+   */
+  private SharedHttpClient() {
+  }
+
+  public static HttpClient get() {
+    return Holder.CLIENT;
+  }
+
+  public static ExecutorService getExecutor() {
+    return ExecutorHolder.EXECUTOR;
+  }
+
+  static DefaultHttpClient create() {
+    final PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager(SchemeRegistryFactory.createSystemDefault());
+    connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_HOST);
+    connectionManager.setMaxTotal(MAX_CONNECTIONS);
+
+    DefaultHttpClient client = new DefaultHttpClient(connectionManager);
+    HttpParams params = client.getParams();
+    HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT);
+    HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT);
+    HttpConnectionParams.setStaleCheckingEnabled(params, true);
+    // Time to wait for a connection from the pool
+    params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, SOCKET_TIMEOUT);
+    client.setKeepAliveStrategy(new BoundedKeepAliveStrategy());
+
+    startEvictor(new IdleConnectionEvictor() {
+      @Override
+      void evict() {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+      }
+    });
+    return client;
+  }
+
+  private static void startEvictor(IdleConnectionEvictor evictor) {
+    Thread thread = new Thread(evictor, "build-stability-idle-connection-evictor");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static final class Holder {
+    private static final DefaultHttpClient CLIENT = create();
+  }
+
+  private static final class ExecutorHolder {
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(WORKER_THREADS,
+      new DaemonThreadFactory("build-stability-http-worker"));
+  }
+
+  /**
+   * Keeps connections alive as long as the server allows, but never longer than the idle timeout.
+   */
+  private static class BoundedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+    private final ConnectionKeepAliveStrategy delegate = new DefaultConnectionKeepAliveStrategy();
+
+    @Override
+    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+      long duration = delegate.getKeepAliveDuration(response, context);
+      return duration > 0 ? Math.min(duration, IDLE_TIMEOUT) : IDLE_TIMEOUT;
+    }
+  }
+
+  /**
+   * Closes expired and idle pooled connections every half idle timeout.
+   */
+  private abstract static class IdleConnectionEvictor implements Runnable {
+    @Override
+    public void run() {
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          Thread.sleep(IDLE_TIMEOUT / 2);
+          evict();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    abstract void evict();
+  }
+
+  static class DaemonThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    DaemonThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.protocol.HttpContext;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Blocking transport whose requests are executed with a classic {@link HttpClient} by the threads of an
+ * {@link Executor} shared by all the connectors of the JVM, so that the number of requests sent at once to CI servers
+ * stays bounded however many analyses run. The caller waits for the response, whose entity is streamed from the
+ * connection.
+ *
+ * @author Ivan Li
+ */
+public class SharedPoolHttpTransport implements HttpTransport {
+
+  private final HttpClient client;
+  private final Executor executor;
+
+  public SharedPoolHttpTransport(HttpClient client, Executor executor) {
+    this.client = client;
+    this.executor = executor;
+  }
+
+  @Override
+  public Future<HttpResponse> send(final HttpGet request, final HttpContext context, @Nullable FutureCallback<HttpResponse> callback) {
+    final BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(callback) {
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        request.abort();
+        return super.cancel(mayInterruptIfRunning);
+      }
+    };
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (future.isDone()) {
+          return;
+        }
+        try {
+          HttpResponse response = client.execute(request, context);
+          if (!future.completed(response)) {
+            // Cancelled meanwhile, nobody will read the response
+            request.abort();
+          }
+        } catch (IOException e) {
+          future.failed(e);
+        } catch (RuntimeException e) {
+          future.failed(e);
+        }
+      }
+    });
+    return future;
+  }
+
+  @Override
+  public boolean isNonBlocking() {
+    return false;
+  }
+}
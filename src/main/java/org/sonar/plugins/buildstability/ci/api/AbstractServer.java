@@ -20,13 +20,29 @@
 package org.sonar.plugins.buildstability.ci.api;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpRequest;
+import org.apache.http.NameValuePair;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 
 /**
  * @author Evgeny Mandrikov
@@ -36,6 +52,8 @@ public abstract class AbstractServer {
   private String username;
   private String password;
   private String key;
+  private String token;
+  private boolean useJSecurityCheck;
 
   public AbstractServer() {
   }
@@ -72,7 +90,45 @@ public abstract class AbstractServer {
     this.key = key;
   }
 
+  /**
+   * Access token sent instead of the username and password, by default as a bearer token.
+   */
+  public String getToken() {
+    return token;
+  }
+
+  public void setToken(String token) {
+    this.token = token;
+  }
+
+  public boolean isUseJSecurityCheck() {
+    return useJSecurityCheck;
+  }
+
+  /**
+   * Logs in through the form of the servlet container, the session cookie it answers then authenticates requests.
+   */
+  public void setUseJSecurityCheck(boolean useJSecurityCheck) {
+    this.useJSecurityCheck = useJSecurityCheck;
+  }
+
+  protected boolean hasToken() {
+    return StringUtils.isNotBlank(getToken());
+  }
+
+  protected boolean hasCredentials() {
+    return StringUtils.isNotBlank(getUsername()) && StringUtils.isNotBlank(getPassword());
+  }
+
   public abstract String getBuildUrlSince(Date date);
+
+  /**
+   * List of the builds started since the given date with their numbers and statuses only, cheaper than the full list
+   * when the details of a few builds are fetched afterwards. By default, the full list.
+   */
+  public String getBuildSummaryUrlSince(Date date) {
+    return getBuildUrlSince(date);
+  }
   
   public abstract String getBuildUrl(String number);
 
@@ -80,11 +136,65 @@ public abstract class AbstractServer {
 
   public abstract Unmarshaller<Build> getBuildUnmarshaller();
 
-  public void doLogin(DefaultHttpClient client) throws IOException {
-    if (StringUtils.isNotBlank(getUsername()) && StringUtils.isNotBlank(getPassword())) {
-      client.getCredentialsProvider().setCredentials(
-          AuthScope.ANY,
-          new UsernamePasswordCredentials(getUsername(), getPassword()));
+  /**
+   * URL of another page of a list, from the link given by the server: absolute, relative to the root of the server
+   * with the context path of the host, or relative to the host.
+   */
+  public String getPageUrl(String href) {
+    if (href.contains("://")) {
+      return href;
+    }
+    URI base = URI.create(getHost());
+    String root = base.getScheme() + "://" + base.getRawAuthority();
+    String contextPath = StringUtils.removeEnd(StringUtils.defaultString(base.getRawPath()), "/");
+    String path = href.startsWith("/") ? href : "/" + href;
+    return path.startsWith(contextPath + "/") ? root + path : root + contextPath + path;
+  }
+
+  /**
+   * Registers credentials in the given context. The client may be shared with other connectors and must not be
+   * configured with per-server state.
+   * <p/>
+   * Basic credentials are sent preemptively, so that requests are not first answered by a 401 challenge. With
+   * j_security_check, the form is posted once and the session cookie kept in the context authenticates the
+   * following requests.
+   */
+  public void doLogin(HttpClient client, HttpContext context) throws IOException {
+    if (hasToken() || !hasCredentials()) {
+      return;
+    }
+    getCredentialsProvider(context).setCredentials(
+        AuthScope.ANY,
+        new UsernamePasswordCredentials(getUsername(), getPassword()));
+    AuthCache authCache = new BasicAuthCache();
+    authCache.put(URIUtils.extractHost(URI.create(getHost())), new BasicScheme());
+    context.setAttribute(ClientContext.AUTH_CACHE, authCache);
+
+    if (isUseJSecurityCheck()) {
+      HttpPost post = new HttpPost(getHost() + "/j_security_check");
+      List<NameValuePair> form = new ArrayList<NameValuePair>();
+      form.add(new BasicNameValuePair("j_username", getUsername()));
+      form.add(new BasicNameValuePair("j_password", getPassword()));
+      post.setEntity(new UrlEncodedFormEntity(form, "UTF-8"));
+      try {
+        // Usually a redirect to the page first asked for, only the cookie matters
+        EntityUtils.consume(client.execute(post, context).getEntity());
+      } finally {
+        post.releaseConnection();
+      }
     }
   }
+
+  /**
+   * Adds what every request to the server needs, by default the access token if any.
+   */
+  public void prepareRequest(HttpRequest request) {
+    if (hasToken()) {
+      request.setHeader("Authorization", "Bearer " + getToken());
+    }
+  }
+
+  protected static CredentialsProvider getCredentialsProvider(HttpContext context) {
+    return (CredentialsProvider) context.getAttribute(ClientContext.CREDS_PROVIDER);
+  }
 }
@@ -0,0 +1,69 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.api;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.util.Collection;
+
+/**
+ * One answer of the server to a request for a list of builds: its builds, and what it tells about the rest of the
+ * list. The fetched builds are copied out of the pages into a plain {@link BuildSeries} before being analysed.
+ *
+ * @author Ivan Li
+ */
+public class BuildPage extends BuildSeries {
+  private String nextHref;
+  private int leftOut;
+
+  public static BuildPage of(Collection<? extends Build> builds) {
+    if (builds instanceof BuildPage) {
+      return (BuildPage) builds;
+    }
+    BuildPage page = new BuildPage();
+    page.addAll(builds);
+    return page;
+  }
+
+  /**
+   * Link to the next page when the builds are one page of a longer list, null otherwise.
+   */
+  @CheckForNull
+  public String getNextHref() {
+    return nextHref;
+  }
+
+  public void setNextHref(@Nullable String nextHref) {
+    this.nextHref = nextHref;
+  }
+
+  /**
+   * Builds listed by the server but left out of the page when parsing it, such as running builds. Together with the
+   * size, the number of builds the server answered.
+   */
+  public int getLeftOut() {
+    return leftOut;
+  }
+
+  public void setLeftOut(int leftOut) {
+    this.leftOut = leftOut;
+  }
+}
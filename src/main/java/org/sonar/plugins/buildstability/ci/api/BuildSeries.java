@@ -0,0 +1,330 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.api;
+
+import org.apache.commons.lang.ObjectUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Builds stored column by column: primitive arrays for timestamps and durations, a bit set for successful builds and
+ * an index in a table of distinct results. Analysing a long window thus does not keep an object per build.
+ * <p/>
+ * The series can be used as a list, in which case {@link #get(int)} creates a {@link Build} on each call. Code going
+ * through many builds should rather use the column accessors.
+ *
+ * @author Ivan Li
+ */
+public class BuildSeries extends AbstractList<Build> implements RandomAccess {
+  private static final int DEFAULT_CAPACITY = 16;
+  private static final int MAX_RESULTS = 256;
+
+  private String[] numbers;
+  private long[] timestamps;
+  private int[] durations;
+  private byte[] resultCodes;
+  private final BitSet successful = new BitSet();
+  private final BitSet estimated = new BitSet();
+  private final List<String> results = new ArrayList<String>();
+  private int size;
+  private double coverage = 1;
+
+  public BuildSeries() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public BuildSeries(int capacity) {
+    int initial = Math.max(1, capacity);
+    numbers = new String[initial];
+    timestamps = new long[initial];
+    durations = new int[initial];
+    resultCodes = new byte[initial];
+  }
+
+  public static BuildSeries of(Collection<? extends Build> builds) {
+    if (builds instanceof BuildSeries) {
+      return (BuildSeries) builds;
+    }
+    BuildSeries series = new BuildSeries(builds.size());
+    for (Build build : builds) {
+      series.add(build);
+    }
+    return series;
+  }
+
+  /**
+   * @param duration in milliseconds, capped to about 24 days
+   */
+  public void add(String number, long timestamp, @Nullable String result, boolean isSuccessful, double duration) {
+    ensureCapacity(size + 1);
+    set(size, number, timestamp, result, isSuccessful, duration);
+    size++;
+    modCount++;
+  }
+
+  @Override
+  public boolean add(Build build) {
+    add(build.getNumberAsString(), build.getTimestamp(), build.getResult(), build.isSuccessful(), build.getDuration());
+    return true;
+  }
+
+  @Override
+  public Build get(int index) {
+    checkIndex(index);
+    return new Build(numbers[index], timestamps[index], getResult(index), successful.get(index), durations[index]);
+  }
+
+  @Override
+  public Build set(int index, Build build) {
+    Build previous = get(index);
+    set(index, build.getNumberAsString(), build.getTimestamp(), build.getResult(), build.isSuccessful(), build.getDuration());
+    return previous;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Share of the builds of the requested period actually in the series, 1 unless fetching them was cut short.
+   */
+  public double getCoverage() {
+    return coverage;
+  }
+
+  public void setCoverage(double coverage) {
+    this.coverage = Math.max(0, Math.min(1, coverage));
+  }
+
+  public String getNumber(int index) {
+    checkIndex(index);
+    return numbers[index];
+  }
+
+  public long getTimestamp(int index) {
+    checkIndex(index);
+    return timestamps[index];
+  }
+
+  /**
+   * @return duration in milliseconds
+   */
+  public int getDuration(int index) {
+    checkIndex(index);
+    return durations[index];
+  }
+
+  public boolean isSuccessful(int index) {
+    checkIndex(index);
+    return successful.get(index);
+  }
+
+  /**
+   * True when the details of the build were not fetched: its timestamp is estimated from its neighbours in the list
+   * and its duration is unknown. The number and the result are exact.
+   */
+  public boolean isEstimated(int index) {
+    checkIndex(index);
+    return estimated.get(index);
+  }
+
+  public boolean hasEstimatedBuilds() {
+    return !estimated.isEmpty();
+  }
+
+  /**
+   * Gives an estimated timestamp to the build at the given index, its duration being unknown.
+   */
+  public void estimate(int index, long timestamp) {
+    checkIndex(index);
+    timestamps[index] = timestamp;
+    durations[index] = 0;
+    estimated.set(index);
+    modCount++;
+  }
+
+  @CheckForNull
+  public String getResult(int index) {
+    checkIndex(index);
+    return results.get(resultCodes[index] & 0xFF);
+  }
+
+  /**
+   * Copies the build at the given index of another series at the end of this one.
+   */
+  public void add(BuildSeries other, int index) {
+    add(other.getNumber(index), other.getTimestamp(index), other.getResult(index), other.isSuccessful(index), other.getDuration(index));
+    estimated.set(size - 1, other.isEstimated(index));
+  }
+
+  /**
+   * Removes builds started before the given timestamp, keeping the order of the others.
+   */
+  public void retainSince(long oldest) {
+    int kept = 0;
+    for (int i = 0; i < size; i++) {
+      if (timestamps[i] >= oldest) {
+        move(i, kept++);
+      }
+    }
+    Arrays.fill(numbers, kept, size, null);
+    successful.clear(kept, size);
+    estimated.clear(kept, size);
+    size = kept;
+    modCount++;
+  }
+
+  /**
+   * Sorts builds by timestamp, oldest first. Builds started at the same time keep their order.
+   */
+  public void sortByTimestamp() {
+    int[] order = order(false);
+
+    String[] sortedNumbers = new String[numbers.length];
+    long[] sortedTimestamps = new long[timestamps.length];
+    int[] sortedDurations = new int[durations.length];
+    byte[] sortedCodes = new byte[resultCodes.length];
+    BitSet sortedSuccessful = new BitSet(size);
+    BitSet sortedEstimated = new BitSet(size);
+    for (int i = 0; i < size; i++) {
+      int from = order[i];
+      sortedNumbers[i] = numbers[from];
+      sortedTimestamps[i] = timestamps[from];
+      sortedDurations[i] = durations[from];
+      sortedCodes[i] = resultCodes[from];
+      sortedSuccessful.set(i, successful.get(from));
+      sortedEstimated.set(i, estimated.get(from));
+    }
+    numbers = sortedNumbers;
+    timestamps = sortedTimestamps;
+    durations = sortedDurations;
+    resultCodes = sortedCodes;
+    successful.clear();
+    successful.or(sortedSuccessful);
+    estimated.clear();
+    estimated.or(sortedEstimated);
+    modCount++;
+  }
+
+  /**
+   * Indexes of the builds sorted by number, compared as strings. Builds with the same number keep their order.
+   */
+  public int[] orderByNumber() {
+    return order(true);
+  }
+
+  private int[] order(boolean byNumber) {
+    int[] order = new int[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    mergeSort(order, new int[size], 0, size, byNumber);
+    return order;
+  }
+
+  private void mergeSort(int[] order, int[] buffer, int from, int to, boolean byNumber) {
+    if (to - from < 2) {
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    mergeSort(order, buffer, from, middle, byNumber);
+    mergeSort(order, buffer, middle, to, byNumber);
+    if (compare(order[middle - 1], order[middle], byNumber) <= 0) {
+      // Already in order, the usual case for builds listed by the CI server
+      return;
+    }
+    System.arraycopy(order, from, buffer, from, to - from);
+    int left = from;
+    int right = middle;
+    for (int i = from; i < to; i++) {
+      if (right >= to || left < middle && compare(buffer[left], buffer[right], byNumber) <= 0) {
+        order[i] = buffer[left++];
+      } else {
+        order[i] = buffer[right++];
+      }
+    }
+  }
+
+  private int compare(int left, int right, boolean byNumber) {
+    if (byNumber) {
+      return numbers[left].compareTo(numbers[right]);
+    }
+    return Long.compare(timestamps[left], timestamps[right]);
+  }
+
+  private void set(int index, String number, long timestamp, @Nullable String result, boolean isSuccessful, double duration) {
+    numbers[index] = number;
+    timestamps[index] = timestamp;
+    durations[index] = (int) Math.max(0, Math.min(Integer.MAX_VALUE, duration));
+    resultCodes[index] = (byte) codeOf(result);
+    successful.set(index, isSuccessful);
+    estimated.clear(index);
+  }
+
+  private void move(int from, int to) {
+    if (from != to) {
+      numbers[to] = numbers[from];
+      timestamps[to] = timestamps[from];
+      durations[to] = durations[from];
+      resultCodes[to] = resultCodes[from];
+      successful.set(to, successful.get(from));
+      estimated.set(to, estimated.get(from));
+    }
+  }
+
+  private int codeOf(@Nullable String result) {
+    for (int i = 0; i < results.size(); i++) {
+      if (ObjectUtils.equals(results.get(i), result)) {
+        return i;
+      }
+    }
+    if (results.size() == MAX_RESULTS) {
+      throw new IllegalStateException("Too many distinct build results: " + (MAX_RESULTS + 1));
+    }
+    results.add(result);
+    return results.size() - 1;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > numbers.length) {
+      int newCapacity = Math.max(capacity, numbers.length + (numbers.length >> 1));
+      numbers = Arrays.copyOf(numbers, newCapacity);
+      timestamps = Arrays.copyOf(timestamps, newCapacity);
+      durations = Arrays.copyOf(durations, newCapacity);
+      resultCodes = Arrays.copyOf(resultCodes, newCapacity);
+    }
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+}
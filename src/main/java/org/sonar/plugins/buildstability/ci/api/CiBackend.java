@@ -0,0 +1,77 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.api;
+
+/**
+ * A kind of CI server the plugin can analyse. Backends are discovered with {@link java.util.ServiceLoader}: an
+ * implementation with a public no-argument constructor is listed in
+ * {@code META-INF/services/org.sonar.plugins.buildstability.ci.api.CiBackend}.
+ * <p/>
+ * Besides creating the server, a backend declares how its builds are best fetched, so that the connector sends as few
+ * requests as the server allows.
+ *
+ * @author Ivan Li
+ */
+public interface CiBackend {
+
+  /**
+   * How a server splits long lists of builds.
+   */
+  enum Pagination {
+    /**
+     * The whole list is returned at once.
+     */
+    NONE,
+    /**
+     * Each page links to the next one, with a {@code nextHref} attribute of its root element or field of its object.
+     */
+    NEXT_LINK,
+    /**
+     * Ranges of the list, newest builds first, are asked for with {@link RangeListing#getBuildRangeUrl} until a build
+     * older than the analysed period shows up. Servers of the backend implement {@link RangeListing}.
+     */
+    RANGE
+  }
+
+  /**
+   * Name of the system, matched regardless of case against the prefix of {@code sonar.build-stability.url} or the
+   * {@code ciManagement/system} of the POM.
+   */
+  String getSystem();
+
+  /**
+   * Part of the URL of a build configuration between the host of the server and the key of the configuration.
+   */
+  String getUrlPattern();
+
+  /**
+   * A new server, whose host, key and credentials are then set from the configured URL. The server tells the URLs of
+   * builds and the {@link AbstractServer#getBuildUnmarshaller() streaming unmarshaller} of their responses.
+   */
+  AbstractServer createServer();
+
+  /**
+   * True when lists of builds carry the details of each build, false when they only carry numbers and statuses and
+   * details are fetched build by build.
+   */
+  boolean isBulkListSupported();
+
+  Pagination getPagination();
+}
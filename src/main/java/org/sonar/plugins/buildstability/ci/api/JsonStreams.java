@@ -0,0 +1,64 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.api;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Helpers to pull-parse JSON responses of CI servers straight from the HTTP entity stream.
+ *
+ * @author Ivan Li
+ */
+public final class JsonStreams {
+  public static final String MIME_TYPE = "application/json";
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  /**
+   * Hide utility-class constructor.
+   */
+  private JsonStreams() {
+  }
+
+  /**
+   * Creates a parser positioned on the first token of the document. The encoding is detected from the first bytes,
+   * JSON being always encoded in UTF-8, UTF-16 or UTF-32.
+   */
+  public static JsonParser createParser(InputStream stream) throws IOException {
+    JsonParser parser = FACTORY.createParser(stream);
+    parser.nextToken();
+    return parser;
+  }
+
+  public static void closeQuietly(@Nullable JsonParser parser) {
+    if (parser != null) {
+      try {
+        parser.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+}
@@ -19,8 +19,13 @@
  */
 package org.sonar.plugins.buildstability.ci.api;
 
+import java.io.IOException;
 import java.util.List;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.fasterxml.jackson.core.JsonParser;
 import org.dom4j.Element;
 
 /**
@@ -29,4 +34,28 @@ import org.dom4j.Element;
 public interface Unmarshaller<MODEL extends Model> {
   MODEL toModel(Element domElement);
   List<MODEL> toManyModel(Element domElement);
+
+  /**
+   * Pull variant of {@link #toModel(Element)}. The reader is positioned on the start element of the model
+   * and must be left on its end element.
+   */
+  MODEL toModel(XMLStreamReader reader) throws XMLStreamException;
+
+  /**
+   * Pull variant of {@link #toManyModel(Element)}. The reader is positioned on the start element of the list
+   * and must be left on its end element.
+   */
+  List<MODEL> toManyModel(XMLStreamReader reader) throws XMLStreamException;
+
+  /**
+   * JSON variant of {@link #toModel(XMLStreamReader)}. The parser is positioned on the start of the model object
+   * and must be left on its end.
+   */
+  MODEL toModel(JsonParser parser) throws IOException;
+
+  /**
+   * JSON variant of {@link #toManyModel(XMLStreamReader)}. The parser is positioned on the start of the list object
+   * and must be left on its end.
+   */
+  List<MODEL> toManyModel(JsonParser parser) throws IOException;
 }
@@ -0,0 +1,136 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.api;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Helpers to pull-parse CI server responses straight from the HTTP entity stream.
+ *
+ * @author Ivan Li
+ */
+public final class XmlStreams {
+  /**
+   * Number of bytes looked at to find the encoding declared by the XML prolog.
+   */
+  static final int PROLOG_SIZE = 256;
+  private static final Pattern ENCODING = Pattern.compile("^<\\?xml[^>]*\\sencoding\\s*=\\s*[\"']([A-Za-z][A-Za-z0-9._-]*)[\"']");
+  private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+  private static final XMLInputFactory FACTORY = createFactory();
+
+  /**
+   * Hide utility-class constructor.
+   */
+  private XmlStreams() {
+  }
+
+  private static XMLInputFactory createFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    return factory;
+  }
+
+  /**
+   * Creates a reader positioned on the root element of the document.
+   *
+   * @param defaultEncoding used when the prolog does not declare any encoding, usually the charset of the Content-Type
+   */
+  public static XMLStreamReader createReader(InputStream stream, @Nullable String defaultEncoding) throws IOException, XMLStreamException {
+    InputStream in = stream.markSupported() ? stream : new BufferedInputStream(stream);
+    String encoding = sniffEncoding(in);
+    if (encoding == null) {
+      encoding = defaultEncoding == null ? "UTF-8" : defaultEncoding;
+    }
+    XMLStreamReader reader = FACTORY.createXMLStreamReader(in, encoding);
+    reader.nextTag();
+    return reader;
+  }
+
+  /**
+   * Looks at the first bytes of the stream, without consuming them, for the encoding declared in the XML prolog.
+   *
+   * @return null when there is no prolog or it does not declare an encoding
+   */
+  @Nullable
+  static String sniffEncoding(InputStream in) throws IOException {
+    byte[] prolog = new byte[PROLOG_SIZE];
+    in.mark(PROLOG_SIZE);
+    int length = 0;
+    try {
+      int read;
+      while (length < PROLOG_SIZE && (read = in.read(prolog, length, PROLOG_SIZE - length)) != -1) {
+        length += read;
+      }
+    } finally {
+      in.reset();
+    }
+    if (length >= 2 && ((prolog[0] & 0xFF) == 0xFE && (prolog[1] & 0xFF) == 0xFF || (prolog[0] & 0xFF) == 0xFF && (prolog[1] & 0xFF) == 0xFE)) {
+      return "UTF-16";
+    }
+    int offset = 0;
+    if (length >= 3 && (prolog[0] & 0xFF) == 0xEF && (prolog[1] & 0xFF) == 0xBB && (prolog[2] & 0xFF) == 0xBF) {
+      offset = 3;
+    }
+    Matcher matcher = ENCODING.matcher(new String(prolog, offset, length - offset, LATIN_1));
+    if (matcher.find()) {
+      return matcher.group(1);
+    }
+    return offset > 0 ? "UTF-8" : null;
+  }
+
+  /**
+   * Skips the element the reader is positioned on, including all of its children.
+   * The reader is left on the matching end element.
+   */
+  public static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  public static void closeQuietly(@Nullable XMLStreamReader reader) {
+    if (reader != null) {
+      try {
+        reader.close();
+      } catch (XMLStreamException e) {
+        // ignore
+      }
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.jenkins;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.commons.lang.math.NumberUtils;
+import org.dom4j.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.BuildPage;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+import org.sonar.plugins.buildstability.ci.api.Unmarshaller;
+import org.sonar.plugins.buildstability.ci.api.XmlStreams;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads Jenkins builds, alone or as the {@code builds} or {@code allBuilds} of a job whatever its kind. Start times
+ * and durations are given in milliseconds.
+ * <p/>
+ * Running builds are left out of lists, as well as aborted builds and builds which were not built because an upstream
+ * build failed, which say nothing about the stability of the job. Builds with a number only, as listed without a
+ * tree, are kept as summaries. A job read as a single build, as asked for its last build, stands for its latest build
+ * which is not left out, or for none.
+ *
+ * @author Ivan Li
+ */
+public class JenkinsBuildUnmarshaller implements Unmarshaller<Build> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(JenkinsBuildUnmarshaller.class);
+
+  @Override
+  @CheckForNull
+  public Build toModel(Element domElement) {
+    BuildPage listed = new BuildPage();
+    return toModel(fields(domElement, listed), listed);
+  }
+
+  @Override
+  public List<Build> toManyModel(Element domElement) {
+    BuildPage builds = new BuildPage();
+    for (Iterator<?> it = domElement.elementIterator(); it.hasNext();) {
+      Element e = (Element) it.next();
+      if (isBuild(e.getName())) {
+        addToList(builds, fields(e, null));
+      }
+    }
+    return builds;
+  }
+
+  @Override
+  @CheckForNull
+  public Build toModel(XMLStreamReader reader) throws XMLStreamException {
+    BuildPage listed = new BuildPage();
+    return toModel(fields(reader, listed), listed);
+  }
+
+  @Override
+  public BuildPage toManyModel(XMLStreamReader reader) throws XMLStreamException {
+    BuildPage builds = new BuildPage();
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      if (isBuild(reader.getLocalName())) {
+        addToList(builds, fields(reader, null));
+      } else {
+        XmlStreams.skipElement(reader);
+      }
+    }
+    return builds;
+  }
+
+  @Override
+  @CheckForNull
+  public Build toModel(JsonParser parser) throws IOException {
+    BuildPage listed = new BuildPage();
+    return toModel(fields(parser, listed), listed);
+  }
+
+  @Override
+  public BuildPage toManyModel(JsonParser parser) throws IOException {
+    BuildPage builds = new BuildPage();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      if (parser.nextToken() == JsonToken.START_ARRAY && ("builds".equals(name) || "allBuilds".equals(name))) {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          addToList(builds, fields(parser, null));
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return builds;
+  }
+
+  /**
+   * Elements of the {@code builds} and {@code allBuilds} lists of a job.
+   */
+  private static boolean isBuild(String name) {
+    return "build".equals(name) || "allBuild".equals(name);
+  }
+
+  @CheckForNull
+  private static Build toModel(BuildFields fields, BuildPage listed) {
+    if (!listed.isEmpty() || listed.getLeftOut() > 0) {
+      return listed.isEmpty() ? null : listed.get(0);
+    }
+    if (fields.number == null) {
+      return null;
+    }
+    fields.addTo(listed);
+    return listed.get(0);
+  }
+
+  private static void addToList(BuildPage builds, BuildFields fields) {
+    if (fields.building || "ABORTED".equals(fields.result) || "NOT_BUILT".equals(fields.result)) {
+      LOG.debug("Leaving out build: number: {}, result: {}, building: {}", fields.number, fields.result, fields.building);
+      builds.setLeftOut(builds.getLeftOut() + 1);
+    } else {
+      fields.addTo(builds);
+    }
+  }
+
+  /**
+   * @param listed builds of the job the element stands for, null to ignore them
+   */
+  private static BuildFields fields(Element element, @Nullable BuildPage listed) {
+    BuildFields fields = new BuildFields();
+    for (Iterator<?> it = element.elementIterator(); it.hasNext();) {
+      Element e = (Element) it.next();
+      if (listed != null && isBuild(e.getName())) {
+        addToList(listed, fields(e, null));
+      } else {
+        fields.set(e.getName(), e.getTextTrim());
+      }
+    }
+    return fields;
+  }
+
+  private static BuildFields fields(XMLStreamReader reader, @Nullable BuildPage listed) throws XMLStreamException {
+    BuildFields fields = new BuildFields();
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      String name = reader.getLocalName();
+      if (BuildFields.isField(name)) {
+        fields.set(name, reader.getElementText());
+      } else if (listed != null && isBuild(name)) {
+        addToList(listed, fields(reader, null));
+      } else {
+        XmlStreams.skipElement(reader);
+      }
+    }
+    return fields;
+  }
+
+  private static BuildFields fields(JsonParser parser, @Nullable BuildPage listed) throws IOException {
+    BuildFields fields = new BuildFields();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (BuildFields.isField(name) && token.isScalarValue()) {
+        fields.set(name, token == JsonToken.VALUE_NULL ? null : parser.getText());
+      } else if (listed != null && token == JsonToken.START_ARRAY && ("builds".equals(name) || "allBuilds".equals(name))) {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          addToList(listed, fields(parser, null));
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return fields;
+  }
+
+  /**
+   * Fields of a build, in any order.
+   */
+  private static class BuildFields {
+    private String number;
+    private String result;
+    private long timestamp;
+    private long duration;
+    private boolean building;
+
+    static boolean isField(String name) {
+      return "number".equals(name) || "result".equals(name) || "timestamp".equals(name) || "duration".equals(name)
+        || "building".equals(name);
+    }
+
+    void set(String name, @Nullable String value) {
+      if ("number".equals(name)) {
+        number = value;
+      } else if ("result".equals(name)) {
+        result = value;
+      } else if ("timestamp".equals(name)) {
+        timestamp = NumberUtils.toLong(value);
+      } else if ("duration".equals(name)) {
+        duration = NumberUtils.toLong(value);
+      } else if ("building".equals(name)) {
+        building = Boolean.parseBoolean(value);
+      }
+    }
+
+    void addTo(BuildSeries series) {
+      LOG.debug("Parsing build: number: {}", number);
+      series.add(number, timestamp, result, "SUCCESS".equals(result), timestamp == 0 ? 0 : duration);
+    }
+  }
+}
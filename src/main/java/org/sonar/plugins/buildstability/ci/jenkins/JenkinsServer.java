@@ -0,0 +1,124 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.jenkins;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpRequest;
+import org.sonar.plugins.buildstability.ci.api.AbstractServer;
+import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.RangeListing;
+import org.sonar.plugins.buildstability.ci.api.Unmarshaller;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+/**
+ * See <a href="https://wiki.jenkins-ci.org/display/JENKINS/Remote+access+API">Jenkins remote access API</a>.
+ * <p/>
+ * The {@code tree} parameter limits responses to the fields the metrics are computed from, and its range suffix pages
+ * the list of builds, so that a window of builds is listed in a single request with every detail.
+ *
+ * @author Ivan Li
+ */
+public class JenkinsServer extends AbstractServer implements RangeListing {
+  public static final String SYSTEM = "Jenkins";
+  public static final String PATTERN = "/job/";
+  /**
+   * Field projection limited to what {@link JenkinsBuildUnmarshaller} reads. {@code building} tells running builds
+   * apart, whose result and duration are not known yet.
+   */
+  static final String BUILD_FIELDS = "number,result,timestamp,duration,building";
+  /**
+   * Number of latest builds the last build is looked for in.
+   */
+  static final int LAST_BUILDS = 10;
+  private static final Unmarshaller<Build> BUILD_UNMARSHALLER = new JenkinsBuildUnmarshaller();
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  @Override
+  public String getBuildUrl(String number) {
+    return getJobUrl() + "/" + number + "/api/xml?tree=" + encode(BUILD_FIELDS);
+  }
+
+  /**
+   * Jenkins does not filter builds by date, this is the whole list. Connectors rather page it with
+   * {@link #getBuildRangeUrl} and stop at the first build older than the date.
+   */
+  @Override
+  public String getBuildUrlSince(Date date) {
+    return getJobUrl() + "/api/xml?tree=" + encode("allBuilds[" + BUILD_FIELDS + "]");
+  }
+
+  /**
+   * {@code allBuilds}, unlike {@code builds}, is not limited to the 100 latest builds.
+   */
+  @Override
+  public String getBuildRangeUrl(int from, int to) {
+    return getJobUrl() + "/api/xml?tree=" + encode("allBuilds[" + BUILD_FIELDS + "]{" + from + "," + to + "}");
+  }
+
+  /**
+   * Latest builds of the job, of which {@link JenkinsBuildUnmarshaller} keeps the first one it would keep in a list:
+   * the {@code lastCompletedBuild} permalink may be an aborted build, which must not be taken for a change of the job.
+   */
+  @Override
+  public String getLastBuildUrl() {
+    return getJobUrl() + "/api/xml?tree=" + encode("allBuilds[" + BUILD_FIELDS + "]{0," + LAST_BUILDS + "}");
+  }
+
+  @Override
+  public Unmarshaller<Build> getBuildUnmarshaller() {
+    return BUILD_UNMARSHALLER;
+  }
+
+  /**
+   * Jenkins does not accept bearer tokens: an API token is sent as the password of its user with basic
+   * authentication.
+   */
+  @Override
+  public void prepareRequest(HttpRequest request) {
+    if (hasToken()) {
+      byte[] credentials = (StringUtils.defaultString(getUsername()) + ":" + getToken()).getBytes(UTF_8);
+      request.setHeader("Authorization", "Basic " + new String(Base64.encodeBase64(credentials), UTF_8));
+    }
+  }
+
+  /**
+   * The key is the path of the job after the first {@code /job/}, which goes on with {@code /job/} for jobs in
+   * folders.
+   */
+  private String getJobUrl() {
+    return getHost() + PATTERN + StringUtils.removeEnd(getKey(), "/");
+  }
+
+  /**
+   * Brackets and braces of trees are not allowed in URIs.
+   */
+  private static String encode(String tree) {
+    try {
+      return URLEncoder.encode(tree, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
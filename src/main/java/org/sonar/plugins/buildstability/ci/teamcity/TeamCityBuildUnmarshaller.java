@@ -19,17 +19,24 @@
  */
 package org.sonar.plugins.buildstability.ci.teamcity;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import org.dom4j.Element;
-import org.dom4j.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.BuildPage;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
 import org.sonar.plugins.buildstability.ci.api.Unmarshaller;
+import org.sonar.plugins.buildstability.ci.api.XmlStreams;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -39,69 +46,149 @@ public class TeamCityBuildUnmarshaller implements Unmarshaller<Build> {
 
   private static final Logger LOG = LoggerFactory.getLogger(TeamCityBuildUnmarshaller.class);
 
-  /**
-   * TeamCity date-time format. Example: 20131124T053500+0000
-   */
-  private static final String DATE_TIME_FORMAT = "yyyyMMdd'T'HHmmssZ";
-
   @Override
   public Build toModel(Element domElement) {
-    Build build = new Build();
+    BuildSeries series = new BuildSeries(1);
+    addTo(series, domElement);
+    return series.get(0);
+  }
 
-    String result = domElement.attributeValue("status");
+  @Override
+  public List<Build> toManyModel(Element domElement) {
+    BuildSeries builds = new BuildSeries();
+    for (Iterator<?> it = domElement.elementIterator(); it.hasNext();) {
+      // Complete builds when the server honoured the field projection, summaries otherwise
+      addTo(builds, (Element) it.next());
+    }
+    return builds;
+  }
 
-    LOG.debug("Parsing build detail: number: {}", domElement.attributeValue("number"));
-    
-    build.setNumber(domElement.attributeValue("number"));
-    build.setTimestamp(getTimeStamp(domElement.elementText("startDate")));
-    build.setResult(result);
-    build.setDuration(calculateDuration(domElement.elementText("startDate"), domElement.elementText("finishDate")));
-    build.setSuccessful("SUCCESS".equalsIgnoreCase(result));
+  @Override
+  public Build toModel(XMLStreamReader reader) throws XMLStreamException {
+    BuildSeries series = new BuildSeries(1);
+    addTo(series, reader);
+    return series.get(0);
+  }
 
-    return build;
+  /**
+   * Builds are added straight to a {@link BuildPage}, without creating a {@link Build} for each of them. The link
+   * to the next page, if any, is read from the root element.
+   */
+  @Override
+  public BuildPage toManyModel(XMLStreamReader reader) throws XMLStreamException {
+    BuildPage builds = new BuildPage();
+    builds.setNextHref(reader.getAttributeValue(null, "nextHref"));
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      if ("build".equals(reader.getLocalName())) {
+        addTo(builds, reader);
+      } else {
+        XmlStreams.skipElement(reader);
+      }
+    }
+    return builds;
   }
 
   @Override
-  public List<Build> toManyModel(Element domElement) {
-    List<Build> builds = new ArrayList<Build>();
-    
-    List<? extends Element> buildElements = domElement.elements();
-    for (Element e : buildElements) {      
-      LOG.debug("Parsing build summary: number: {}", e.attributeValue("number"));
-      
-      Build build = new Build();
-      build.setNumber(e.attributeValue("number"));
-      builds.add(build);
+  public Build toModel(JsonParser parser) throws IOException {
+    BuildSeries series = new BuildSeries(1);
+    addTo(series, parser);
+    return series.get(0);
+  }
+
+  /**
+   * Builds are read from the "build" array of the list object along with the link to the next page, other fields
+   * such as the count are skipped.
+   */
+  @Override
+  public BuildPage toManyModel(JsonParser parser) throws IOException {
+    BuildPage builds = new BuildPage();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      if (parser.nextToken() == JsonToken.START_ARRAY && "build".equals(name)) {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          addTo(builds, parser);
+        }
+      } else if ("nextHref".equals(name)) {
+        builds.setNextHref(parser.getCurrentToken() == JsonToken.VALUE_STRING ? parser.getText() : null);
+      } else {
+        parser.skipChildren();
+      }
     }
-    
     return builds;
   }
 
-  private long getTimeStamp(String startDate) {
-    Date start = parseDate(startDate);
-    return start == null ? 0 : start.getTime();
+  private void addTo(BuildSeries series, JsonParser parser) throws IOException {
+    String number = null;
+    String status = null;
+    String startDate = null;
+    String finishDate = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if ("number".equals(name)) {
+        number = parser.getText();
+      } else if ("status".equals(name)) {
+        status = parser.getText();
+      } else if ("startDate".equals(name)) {
+        startDate = parser.getText();
+      } else if ("finishDate".equals(name)) {
+        finishDate = parser.getText();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    add(series, number, status, startDate, finishDate);
   }
 
-  private double calculateDuration(String startDate, String endDate) {
-    Date start = parseDate(startDate);
-    Date end = parseDate(endDate);
+  private void addTo(BuildSeries series, Element domElement) {
+    add(series, domElement.attributeValue("number"), domElement.attributeValue("status"),
+      domElement.elementText("startDate"), domElement.elementText("finishDate"));
+  }
 
-    if (start == null || end == null) {
-      return 0;
-    } else {
-      return end.getTime() - start.getTime();
+  private void addTo(BuildSeries series, XMLStreamReader reader) throws XMLStreamException {
+    String number = reader.getAttributeValue(null, "number");
+    String status = reader.getAttributeValue(null, "status");
+    String startDate = null;
+    String finishDate = null;
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      String name = reader.getLocalName();
+      if ("startDate".equals(name)) {
+        startDate = reader.getElementText();
+      } else if ("finishDate".equals(name)) {
+        finishDate = reader.getElementText();
+      } else {
+        XmlStreams.skipElement(reader);
+      }
     }
+    add(series, number, status, startDate, finishDate);
   }
 
-  private Date parseDate(String date) {
-    SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_TIME_FORMAT);
-    try {
-      return dateFormat.parse(date);
-    } catch (ParseException e) {
-      LOG.warn("Unable to parse date {}. Expected format is {}", date, DATE_TIME_FORMAT);
-      return null;
+  private void add(BuildSeries series, String number, @Nullable String status, @Nullable String startDate, @Nullable String finishDate) {
+    if (startDate == null) {
+      LOG.debug("Parsing build summary: number: {}", number);
+      // Lists from servers ignoring the field projection still tell the status of each build
+      series.add(number, 0, status, "SUCCESS".equalsIgnoreCase(status), 0);
+    } else {
+      LOG.debug("Parsing build detail: number: {}", number);
+      long start = TeamCityDates.parse(startDate);
+      series.add(number, getTimeStamp(start), status, "SUCCESS".equalsIgnoreCase(status), calculateDuration(start, finishDate));
     }
   }
 
+  private static long getTimeStamp(long start) {
+    return start == TeamCityDates.INVALID ? 0 : start;
+  }
+
+  /**
+   * The start date is only parsed once per build, by the caller.
+   */
+  private static double calculateDuration(long start, @Nullable String endDate) {
+    long end = endDate == null ? TeamCityDates.INVALID : TeamCityDates.parse(endDate);
 
+    if (start == TeamCityDates.INVALID || end == TeamCityDates.INVALID) {
+      return 0;
+    } else {
+      return end - start;
+    }
+  }
 }
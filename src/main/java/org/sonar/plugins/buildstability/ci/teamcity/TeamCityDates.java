@@ -0,0 +1,179 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.teamcity;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Codec of the TeamCity date-time format, {@code yyyyMMdd'T'HHmmssZ}, for example 20131124T053500+0000.
+ * <p/>
+ * Dates are parsed from their characters straight into epoch milliseconds, without creating any object, and
+ * formatted without a {@link SimpleDateFormat}. The codec holds no state and is safe to share between threads.
+ * Values not in the expected layout are handed to {@link SimpleDateFormat}, as they were before.
+ *
+ * @author Ivan Li
+ */
+public final class TeamCityDates {
+
+  static final String FORMAT = "yyyyMMdd'T'HHmmssZ";
+  /**
+   * Returned for dates which cannot be parsed.
+   */
+  public static final long INVALID = Long.MIN_VALUE;
+
+  private static final Logger LOG = LoggerFactory.getLogger(TeamCityDates.class);
+  private static final int LENGTH = 20;
+  private static final int DAYS_0000_TO_1970 = 719468;
+  private static final int DAYS_PER_ERA = 146097;
+  private static final long MILLIS_PER_MINUTE = 60000L;
+  private static final long MILLIS_PER_DAY = 86400000L;
+
+  /**
+   * Hide utility-class constructor.
+   */
+  private TeamCityDates() {
+  }
+
+  /**
+   * @return epoch milliseconds, or {@link #INVALID} when the date cannot be parsed
+   */
+  public static long parse(String date) {
+    long millis = parseStrict(date);
+    return millis == INVALID ? parseFallback(date) : millis;
+  }
+
+  /**
+   * Parses the exact layout of the format, anything else being invalid.
+   */
+  static long parseStrict(String date) {
+    if (date.length() != LENGTH || date.charAt(8) != 'T') {
+      return INVALID;
+    }
+    int year = digits(date, 0, 4);
+    int month = digits(date, 4, 2);
+    int day = digits(date, 6, 2);
+    int hour = digits(date, 9, 2);
+    int minute = digits(date, 11, 2);
+    int second = digits(date, 13, 2);
+    int offsetHours = digits(date, 16, 2);
+    int offsetMinutes = digits(date, 18, 2);
+    char sign = date.charAt(15);
+    if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+      || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59
+      || offsetHours < 0 || offsetMinutes < 0 || offsetMinutes > 59 || sign != '+' && sign != '-') {
+      return INVALID;
+    }
+    int offset = offsetHours * 60 + offsetMinutes;
+    long local = daysFromCivil(year, month, day) * MILLIS_PER_DAY + ((hour * 60L + minute) * 60 + second) * 1000;
+    return sign == '+' ? local - offset * MILLIS_PER_MINUTE : local + offset * MILLIS_PER_MINUTE;
+  }
+
+  private static long parseFallback(String date) {
+    try {
+      return new SimpleDateFormat(FORMAT).parse(date).getTime();
+    } catch (ParseException e) {
+      LOG.warn("Unable to parse date {}. Expected format is {}", date, FORMAT);
+      return INVALID;
+    }
+  }
+
+  /**
+   * Formats the given instant with the offset of the given time zone at that instant.
+   */
+  public static String format(long millis, TimeZone zone) {
+    int offsetMinutes = (int) (zone.getOffset(millis) / MILLIS_PER_MINUTE);
+    long local = millis + offsetMinutes * MILLIS_PER_MINUTE;
+    long days = local >= 0 ? local / MILLIS_PER_DAY : (local + 1) / MILLIS_PER_DAY - 1;
+    int millisOfDay = (int) (local - days * MILLIS_PER_DAY);
+
+    // Civil date from days since the epoch, see http://howardhinnant.github.io/date_algorithms.html
+    long z = days + DAYS_0000_TO_1970;
+    long era = (z >= 0 ? z : z - DAYS_PER_ERA + 1) / DAYS_PER_ERA;
+    int dayOfEra = (int) (z - era * DAYS_PER_ERA);
+    int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    int shiftedMonth = (5 * dayOfYear + 2) / 153;
+    int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+    int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+    char[] chars = new char[LENGTH];
+    put(chars, 0, (int) year, 4);
+    put(chars, 4, month, 2);
+    put(chars, 6, day, 2);
+    chars[8] = 'T';
+    int secondOfDay = millisOfDay / 1000;
+    put(chars, 9, secondOfDay / 3600, 2);
+    put(chars, 11, secondOfDay / 60 % 60, 2);
+    put(chars, 13, secondOfDay % 60, 2);
+    chars[15] = offsetMinutes < 0 ? '-' : '+';
+    int offset = Math.abs(offsetMinutes);
+    put(chars, 16, offset / 60, 2);
+    put(chars, 18, offset % 60, 2);
+    return new String(chars);
+  }
+
+  /**
+   * Days since the epoch of a date of the proleptic Gregorian calendar.
+   */
+  private static long daysFromCivil(int year, int month, int day) {
+    int y = month <= 2 ? year - 1 : year;
+    int era = (y >= 0 ? y : y - 399) / 400;
+    int yearOfEra = y - era * 400;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return (long) era * DAYS_PER_ERA + dayOfEra - DAYS_0000_TO_1970;
+  }
+
+  private static int daysInMonth(int year, int month) {
+    if (month == 2) {
+      return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+    }
+    return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+  }
+
+  /**
+   * @return value of the decimal digits at the given position, negative if any of them is not a digit
+   */
+  private static int digits(String s, int start, int count) {
+    int value = 0;
+    for (int i = start; i < start + count; i++) {
+      int digit = s.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  private static void put(char[] chars, int start, int value, int count) {
+    int remaining = value;
+    for (int i = start + count - 1; i >= start; i--) {
+      chars[i] = (char) ('0' + remaining % 10);
+      remaining /= 10;
+    }
+  }
+}
@@ -19,20 +19,15 @@
  */
 package org.sonar.plugins.buildstability.ci.teamcity;
 
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.Credentials;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.sonar.plugins.buildstability.ci.api.AbstractServer;
 import org.sonar.plugins.buildstability.ci.api.Build;
 import org.sonar.plugins.buildstability.ci.api.Unmarshaller;
 
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 
 /**
  * See <a href="http://confluence.jetbrains.com/display/TW/REST+API+Plugin#RESTAPIPlugin-Usage">TeamCity REST APIs</a>.
@@ -42,30 +37,60 @@ import java.util.Date;
 public class TeamCityServer extends AbstractServer {
   public static final String SYSTEM = "TeamCity";
   public static final String PATTERN = "/viewType.html?buildTypeId=";
+  /**
+   * Field projection limited to what {@link TeamCityBuildUnmarshaller#toModel} reads: every metric is computed from
+   * the number, status, start and finish of builds. Agent, revisions, triggers, tags and links are never sent.
+   * Servers older than TeamCity 8.1 ignore it.
+   */
+  static final String BUILD_FIELDS = "number,status,startDate,finishDate";
+  /**
+   * Same projection for the builds of a list, so that a single request returns complete builds.
+   */
+  static final String BUILD_DETAIL_FIELDS = "build(" + BUILD_FIELDS + ")";
+  /**
+   * Lists are paged, the projection must keep the link to the next page.
+   */
+  static final String BUILD_LIST_FIELDS = "nextHref," + BUILD_DETAIL_FIELDS;
+  /**
+   * Projection of lists whose details are fetched for a sample of builds only.
+   */
+  static final String BUILD_SUMMARY_FIELDS = "nextHref,build(number,status)";
+  /**
+   * Locator dimensions leaving out, on the server, builds which say nothing about the stability of the build
+   * configuration: personal builds, canceled builds and builds which failed to start.
+   */
+  static final String BUILD_FILTER = "personal:false,canceled:false,failedToStart:false";
   private static final Unmarshaller<Build> BUILD_UNMARSHALLER = new TeamCityBuildUnmarshaller();
 
   @Override
   public String getBuildUrl(String number) {
-    StringBuilder sb = new StringBuilder(getHost())
-      .append("/httpAuth/app/rest/buildTypes/id:").append(getKey()).append("/builds/number:").append(number);
+    StringBuilder sb = new StringBuilder(getRestUrl())
+      .append("/buildTypes/id:").append(getKey()).append("/builds/number:").append(number)
+      .append("?fields=").append(BUILD_FIELDS);
     return sb.toString();
   }
   
   @Override
   public String getBuildUrlSince(Date date) {
-    StringBuilder dateTime = new StringBuilder()
-      .append(new SimpleDateFormat("yyyyMMdd").format(date))
-      .append("T")
-      .append(new SimpleDateFormat("HHmmss").format(date))
-      .append(new SimpleDateFormat("Z").format(date));
-    
+    return getBuildListUrl(date, BUILD_LIST_FIELDS);
+  }
+
+  @Override
+  public String getBuildSummaryUrlSince(Date date) {
+    return getBuildListUrl(date, BUILD_SUMMARY_FIELDS);
+  }
+
+  private String getBuildListUrl(Date date, String fields) {
     StringBuilder sb;
     try {
-      sb = new StringBuilder(getHost())
-        .append("/httpAuth/app/rest/buildTypes/id:")
+      sb = new StringBuilder(getRestUrl())
+        .append("/buildTypes/id:")
         .append(getKey())
-        .append("/builds?sinceDate=")
-        .append(URLEncoder.encode(dateTime.toString(), "UTF-8"));
+        .append("/builds?locator=sinceDate:")
+        .append(URLEncoder.encode(TeamCityDates.format(date.getTime(), TimeZone.getDefault()), "UTF-8"))
+        .append(",").append(BUILD_FILTER)
+        .append("&fields=")
+        .append(fields);
 
       return sb.toString();
     } catch (UnsupportedEncodingException e) { }
@@ -73,10 +98,15 @@ public class TeamCityServer extends AbstractServer {
     return null;
   }
 
+  /**
+   * Latest build of the list, filtered like the list: a personal or canceled build must not be taken for a change of
+   * the build configuration.
+   */
   @Override
   public String getLastBuildUrl() {
-    StringBuilder sb = new StringBuilder(getHost())
-      .append("/httpAuth/app/rest/buildTypes/id:").append(getKey()).append("/builds/count:0");
+    StringBuilder sb = new StringBuilder(getRestUrl())
+      .append("/buildTypes/id:").append(getKey()).append("/builds/").append(BUILD_FILTER).append(",count:1")
+      .append("?fields=").append(BUILD_FIELDS);
     return sb.toString();
   }
 
@@ -85,9 +115,11 @@ public class TeamCityServer extends AbstractServer {
     return BUILD_UNMARSHALLER;
   }
 
-  @Override
-  public void doLogin(DefaultHttpClient client) throws IOException {
-    Credentials credentials = new UsernamePasswordCredentials(getUsername(), getPassword());
-    client.getCredentialsProvider().setCredentials(AuthScope.ANY, credentials);
+  /**
+   * Requests authenticated with an access token must not go through /httpAuth, which only accepts a username and a
+   * password.
+   */
+  private String getRestUrl() {
+    return getHost() + (hasToken() ? "/app/rest" : "/httpAuth/app/rest");
   }
 }
@@ -58,6 +58,15 @@ public class BuildStabilityChartTest extends AbstractChartTest {
     // Thread.sleep(1000 * 30);
   }
 
+  @Test
+  public void resultsWithoutDuration() throws Exception {
+    BufferedImage image = chart.generateImage(new ChartParameters("w=350&h=200" +
+      encode("&v=", "11=5.0;13=10.0") +
+      encode("&c=", "11=r;12=g;13=g")
+      ));
+    assertChartSizeGreaterThan(image, 1000);
+  }
+
   private String encode(String prefix, String val) throws UnsupportedEncodingException {
     return prefix + URLEncoder.encode(val, "UTF-8");
   }
@@ -0,0 +1,176 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.analysis;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.test.IsMeasure;
+import org.sonar.plugins.buildstability.BuildStabilityMetrics;
+import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Delta.delta;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @author Ivan Li
+ */
+public class BuildAnalyserTest {
+
+  private static final long DAY = 24L * 60 * 60 * 1000;
+
+  @Test
+  public void shouldGiveBuildsOnceInTimestampOrder() {
+    final List<String> seen = new ArrayList<String>();
+    BuildSeries builds = BuildSeries.of(Arrays.asList(
+      new Build(3, 40 * DAY, "Fake", true, 1),
+      new Build(1, 0, "Fake", true, 1),
+      new Build(2, 30 * DAY, "Fake", false, 1)));
+
+    new BuildAnalyser(new BuildAccumulator() {
+      @Override
+      public void add(BuildSeries series, int index) {
+        seen.add(index + ":" + series.getNumber(index));
+      }
+
+      @Override
+      public void saveMeasures(SensorContext context) {
+        seen.add("saved");
+      }
+    }).analyse(builds, mock(SensorContext.class));
+
+    assertThat(seen).containsExactly("0:1", "1:2", "2:3", "saved");
+  }
+
+  @Test
+  public void shouldMeasureEveryFailureStreak() {
+    SensorContext context = mock(SensorContext.class);
+    BuildSeries builds = BuildSeries.of(Arrays.asList(
+      new Build(1, 0, "Fake", false, 1),
+      new Build(2, 10, "Fake", false, 1),
+      new Build(3, 20, "Fake", false, 1),
+      new Build(4, 30, "Fake", true, 1),
+      new Build(5, 40, "Fake", false, 1),
+      new Build(6, 50, "Fake", true, 1),
+      new Build(7, 60, "Fake", false, 1)));
+
+    new BuildAnalyser(new TimeToFixAccumulator()).analyse(builds, context);
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.AVG_TIME_TO_FIX, 20.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.LONGEST_TIME_TO_FIX, 30.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.AVG_BUILDS_TO_FIX, 2.0)));
+  }
+
+  @Test
+  public void shouldSaveConfidenceBoundsOfSampledDurations() {
+    SensorContext context = mock(SensorContext.class);
+    BuildSeries builds = new BuildSeries();
+    for (int i = 0; i < 1000; i++) {
+      builds.add(String.valueOf(i), i * DAY, "SUCCESS", true, 20 + i % 100);
+      if (i % 10 != 0) {
+        builds.estimate(i, i * DAY);
+      }
+    }
+
+    new BuildAnalyser(new DurationAccumulator()).analyse(builds, context);
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATION_SAMPLE_SIZE, 100.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.AVG_DURATION, 65.0)));
+    // Sampled durations are 20, 30, ... 110, ten times each, with a variance of 825 * 100 / 99
+    double margin = DurationAccumulator.getAverageMargin(100, 1000, 82500.0 / 99);
+    // Measures are rounded to one decimal
+    ArgumentCaptor<Measure> measures = ArgumentCaptor.forClass(Measure.class);
+    verify(context, atLeastOnce()).saveMeasure(measures.capture());
+    for (Measure measure : measures.getAllValues()) {
+      if (measure.getMetric().equals(BuildStabilityMetrics.AVG_DURATION_LOWER)) {
+        assertThat(measure.getValue()).isEqualTo(65.0 - margin, delta(0.05));
+      } else if (measure.getMetric().equals(BuildStabilityMetrics.AVG_DURATION_UPPER)) {
+        assertThat(measure.getValue()).isEqualTo(65.0 + margin, delta(0.05));
+      }
+    }
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATION_P50_LOWER, 50.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATION_P50_UPPER, 80.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATION_P90_LOWER, 100.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATION_P90_UPPER, 110.0)));
+  }
+
+  @Test
+  public void shouldNotSaveConfidenceBoundsOfExactDurations() {
+    SensorContext context = mock(SensorContext.class);
+    BuildSeries builds = BuildSeries.of(Arrays.asList(
+      new Build(1, 0, "Fake", true, 10),
+      new Build(2, 10, "Fake", true, 20)));
+
+    new BuildAnalyser(new DurationAccumulator()).analyse(builds, context);
+
+    verify(context, never()).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATION_SAMPLE_SIZE)));
+  }
+
+  @Test
+  public void shouldNarrowConfidenceIntervalsWithTheSample() {
+    assertThat(DurationAccumulator.getAverageMargin(100, 100, 400)).isEqualTo(0.0);
+    assertThat(DurationAccumulator.getAverageMargin(100, 1000000, 400)).isEqualTo(DurationAccumulator.Z_95 * 2, delta(0.01));
+    assertThat(DurationAccumulator.getAverageMargin(400, 1000000, 400)).isEqualTo(DurationAccumulator.Z_95, delta(0.01));
+
+    assertThat(DurationAccumulator.getQuantileRanks(100, 0.5)).isEqualTo(new long[] {40, 61});
+    assertThat(DurationAccumulator.getQuantileRanks(100, 0.9)).isEqualTo(new long[] {84, 97});
+    assertThat(DurationAccumulator.getQuantileRanks(3, 0.9)).isEqualTo(new long[] {1, 3});
+  }
+
+  @Test
+  public void shouldWriteHistoryLikePropertiesBuilder() {
+    SensorContext context = mock(SensorContext.class);
+    BuildSeries builds = BuildSeries.of(Arrays.asList(
+      new Build("9", 0, "Fake", true, 1500),
+      new Build("10", 10, "Fake", false, 2000),
+      new Build("9", 20, "Fake", false, 250)));
+
+    new BuildAnalyser(new HistoryAccumulator()).analyse(builds, context);
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATIONS, "10=2.0;9=0.25")));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.RESULTS, "10=r;9=r")));
+  }
+
+  @Test
+  public void shouldLeaveEstimatedBuildsOutOfDurations() {
+    SensorContext context = mock(SensorContext.class);
+    BuildSeries builds = new BuildSeries();
+    builds.add("1", 0, "SUCCESS", true, 1500);
+    builds.add("2", 10, "FAILURE", false, 0);
+    builds.estimate(1, 10);
+    builds.add("3", 20, "SUCCESS", true, 2000);
+
+    new BuildAnalyser(new HistoryAccumulator()).analyse(builds, context);
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATIONS, "1=1.5;3=2.0")));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.RESULTS, "1=g;2=r;3=g")));
+  }
+}
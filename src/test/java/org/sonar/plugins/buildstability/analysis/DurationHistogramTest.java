@@ -0,0 +1,80 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.analysis;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ivan Li
+ */
+public class DurationHistogramTest {
+
+  @Test
+  public void shouldBeExactForSmallValues() {
+    DurationHistogram histogram = new DurationHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+
+    assertThat(histogram.getCount()).isEqualTo(100);
+    assertThat(histogram.getValueAtPercentile(50)).isEqualTo(50);
+    assertThat(histogram.getValueAtPercentile(90)).isEqualTo(90);
+    assertThat(histogram.getValueAtPercentile(99)).isEqualTo(99);
+    assertThat(histogram.getValueAtPercentile(100)).isEqualTo(100);
+  }
+
+  @Test
+  public void shouldBoundRelativeError() {
+    DurationHistogram histogram = new DurationHistogram();
+    for (long value = 1; value < Long.MAX_VALUE / 3; value = value * 3 + 7) {
+      assertThat(DurationHistogram.indexOf(value)).isGreaterThanOrEqualTo(DurationHistogram.indexOf(value - 1));
+      long estimate = DurationHistogram.valueOf(DurationHistogram.indexOf(value));
+      assertThat(Math.abs(estimate - value)).isLessThanOrEqualTo(value / 64 + 1);
+    }
+    histogram.record(Long.MAX_VALUE);
+    assertThat(histogram.getValueAtPercentile(50)).isGreaterThan(Long.MAX_VALUE / 64 * 63);
+  }
+
+  @Test
+  public void shouldMerge() {
+    DurationHistogram left = new DurationHistogram();
+    DurationHistogram right = new DurationHistogram();
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      (i % 2 == 0 ? left : right).record(60000 + random.nextInt(60000));
+    }
+
+    left.merge(right);
+    left.merge(new DurationHistogram());
+
+    assertThat(left.getCount()).isEqualTo(10000);
+    assertThat(left.getValueAtPercentile(50)).isGreaterThan(88000).isLessThan(92000);
+    assertThat(left.getValueAtPercentile(99)).isGreaterThan(116000).isLessThan(121000);
+  }
+
+  @Test
+  public void shouldReturnZeroWhenEmpty() {
+    assertThat(new DurationHistogram().getValueAtPercentile(90)).isEqualTo(0);
+  }
+}
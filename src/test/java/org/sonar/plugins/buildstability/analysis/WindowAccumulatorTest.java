@@ -0,0 +1,82 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.analysis;
+
+import org.junit.Test;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.test.IsMeasure;
+import org.sonar.plugins.buildstability.BuildStabilityMetrics;
+import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+import java.util.Arrays;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @author Ivan Li
+ */
+public class WindowAccumulatorTest {
+
+  private static final long DAY = 24L * 60 * 60 * 1000;
+  private static final long NOW = 100 * DAY;
+
+  @Test
+  public void shouldMeasureEachWindowInOnePass() {
+    SensorContext context = mock(SensorContext.class);
+    BuildSeries builds = BuildSeries.of(Arrays.asList(
+      new Build(1, NOW - 40 * DAY, "Fake", true, 100),
+      new Build(2, NOW - 20 * DAY, "Fake", false, 10),
+      new Build(3, NOW - 10 * DAY, "Fake", true, 200),
+      new Build(4, NOW - 5 * DAY, "Fake", false, 10),
+      new Build(5, NOW - 3 * DAY, "Fake", false, 10),
+      new Build(6, NOW - DAY, "Fake", true, 300)));
+
+    new BuildAnalyser(new WindowAccumulator(NOW, 30, 7)).analyse(builds, context);
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.WINDOW_SUCCESS_RATES, "7=33.33333333333333;30=40.0")));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.WINDOW_AVG_DURATIONS, "7=300.0;30=250.0")));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.WINDOW_AVG_TIMES_TO_FIX, "7=3.456E8;30=6.048E8")));
+  }
+
+  @Test
+  public void shouldMeasureRepeatedWindowsOnce() {
+    SensorContext context = mock(SensorContext.class);
+    BuildSeries builds = BuildSeries.of(Arrays.asList(new Build(1, NOW - DAY, "Fake", true, 100)));
+
+    new BuildAnalyser(new WindowAccumulator(NOW, 7, 30, 7)).analyse(builds, context);
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.WINDOW_SUCCESS_RATES, "7=100.0;30=100.0")));
+  }
+
+  @Test
+  public void shouldNotSaveMeasuresWithoutWindows() {
+    SensorContext context = mock(SensorContext.class);
+
+    new BuildAnalyser(new WindowAccumulator(NOW)).analyse(new BuildSeries(), context);
+
+    verify(context, never()).saveMeasure(any(Measure.class));
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.time.DateUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+import org.sonar.plugins.buildstability.ci.teamcity.TeamCityServer;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Ivan Li
+ */
+public class BuildHistoryCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private BuildHistoryCache cache;
+  private CiConnector connector;
+
+  @Before
+  public void setUp() throws Exception {
+    cache = new BuildHistoryCache(new File(temp.getRoot(), "cache"));
+    TeamCityServer server = new TeamCityServer();
+    server.setHost("http://teamcity");
+    server.setKey("Project_Install");
+    connector = mock(CiConnector.class);
+    when(connector.getServer()).thenReturn(server);
+  }
+
+  @Test
+  public void shouldRoundTripBuilds() throws Exception {
+    File file = temp.newFile("builds.bin");
+    BuildHistoryCache.History history = new BuildHistoryCache.History();
+    history.builds.add(new Build("10", 1000L, "SUCCESS", true, 300));
+    history.builds.add(new Build("11", 2000L, "FAILURE", false, 200));
+    history.builds.add(new Build("1.2.3", 3000L, null, true, 100));
+    history.setWatermark(new Build("1.2.3", 3000L, null, true, 100), 500L);
+    BuildHistoryCache.write(file, history);
+
+    BuildHistoryCache.History read = BuildHistoryCache.read(file);
+    BuildSeries builds = read.builds;
+
+    assertThat(builds).hasSize(3);
+    assertThat(builds.getNumber(0)).isEqualTo("10");
+    assertThat(builds.getNumber(1)).isEqualTo("11");
+    assertThat(builds.getNumber(2)).isEqualTo("1.2.3");
+    assertThat(builds.getTimestamp(0)).isEqualTo(1000L);
+    assertThat(builds.getDuration(0)).isEqualTo(300);
+    assertThat(builds.isSuccessful(0)).isTrue();
+    assertThat(builds.getResult(1)).isEqualTo("FAILURE");
+    assertThat(builds.isSuccessful(1)).isFalse();
+    assertThat(builds.isSuccessful(2)).isTrue();
+    assertThat(read.lastNumber).isEqualTo("1.2.3");
+    assertThat(read.lastFinish).isEqualTo(3100L);
+    assertThat(read.windowStart).isEqualTo(500L);
+  }
+
+  @Test
+  public void shouldIgnoreUnreadableCache() throws Exception {
+    File file = temp.newFile("builds.bin");
+    FileUtils.writeStringToFile(file, "not a cache");
+
+    assertThat(BuildHistoryCache.read(file).builds).isEmpty();
+    assertThat(BuildHistoryCache.read(new File(temp.getRoot(), "missing.bin")).builds).isEmpty();
+  }
+
+  @Test
+  public void shouldOnlyFetchNewBuilds() throws Exception {
+    Date since = new Date(1000L);
+    when(connector.getBuildsSince(since)).thenReturn(Arrays.asList(
+      new Build("1", 10000L, "SUCCESS", true, 300),
+      new Build("2", 20000L, "FAILURE", false, 500)));
+    assertThat(cache.getBuildsSince(connector, since)).hasSize(2);
+
+    Date refresh = new Date(20000L - 500);
+    when(connector.getBuildsSince(refresh)).thenReturn(Arrays.asList(
+      new Build("2", 20000L, "FAILURE", false, 500),
+      new Build("3", 30000L, "SUCCESS", true, 100)));
+    List<Build> builds = cache.getBuildsSince(connector, since);
+
+    verify(connector).getBuildsSince(refresh);
+    assertThat(builds).hasSize(3);
+  }
+
+  @Test
+  public void shouldEvictBuildsOutsideWindow() throws Exception {
+    when(connector.getBuildsSince(new Date(1000L))).thenReturn(Arrays.asList(
+      new Build("1", 10000L, "SUCCESS", true, 300),
+      new Build("2", 20000L, "SUCCESS", true, 300)));
+    cache.getBuildsSince(connector, new Date(1000L));
+
+    when(connector.getBuildsSince(new Date(20000L - 300))).thenReturn(Collections.<Build>emptyList());
+    List<Build> builds = cache.getBuildsSince(connector, new Date(15000L));
+
+    assertThat(builds).hasSize(1);
+    assertThat(builds.get(0).getNumberAsString()).isEqualTo("2");
+  }
+
+  @Test
+  public void shouldNotCacheIncompleteBuilds() throws Exception {
+    Build summary = new Build();
+    summary.setNumber("5");
+    when(connector.getBuildsSince(new Date(0L))).thenReturn(Arrays.asList(summary));
+
+    assertThat(cache.getBuildsSince(connector, new Date(0L))).isEmpty();
+  }
+
+  @Test
+  public void shouldSkipFetchingWhenLastBuildIsUnchanged() throws Exception {
+    Date since = new Date(1000L);
+    Build last = new Build("2", 20000L, "FAILURE", false, 500);
+    when(connector.getLastBuild()).thenReturn(last);
+    when(connector.getBuildsSince(since)).thenReturn(Arrays.asList(
+      new Build("1", 10000L, "SUCCESS", true, 300),
+      last));
+    cache.getBuildsSince(connector, since);
+
+    List<Build> builds = cache.getBuildsSince(connector, new Date(2000L));
+
+    verify(connector, times(1)).getBuildsSince(any(Date.class));
+    assertThat(builds).hasSize(2);
+  }
+
+  @Test
+  public void shouldFetchWhenANewBuildFinished() throws Exception {
+    Date since = new Date(1000L);
+    when(connector.getLastBuild()).thenReturn(new Build("1", 10000L, "SUCCESS", true, 300));
+    when(connector.getBuildsSince(since)).thenReturn(Arrays.asList(new Build("1", 10000L, "SUCCESS", true, 300)));
+    cache.getBuildsSince(connector, since);
+
+    Build last = new Build("2", 20000L, "FAILURE", false, 500);
+    when(connector.getLastBuild()).thenReturn(last);
+    when(connector.getBuildsSince(new Date(10000L - 300))).thenReturn(Arrays.asList(last));
+    List<Build> builds = cache.getBuildsSince(connector, since);
+
+    verify(connector).getBuildsSince(new Date(10000L - 300));
+    assertThat(builds).hasSize(2);
+  }
+
+  @Test
+  public void shouldFetchWhenWindowMovedToAnotherDay() throws Exception {
+    Build last = new Build("1", 10000L, "SUCCESS", true, 300);
+    when(connector.getLastBuild()).thenReturn(last);
+    when(connector.getBuildsSince(any(Date.class))).thenReturn(Arrays.asList(last));
+    cache.getBuildsSince(connector, new Date(1000L));
+
+    cache.getBuildsSince(connector, new Date(1000L + DateUtils.MILLIS_PER_DAY));
+
+    verify(connector, times(2)).getBuildsSince(any(Date.class));
+  }
+
+  @Test
+  public void shouldUseCachedBuildsWhenDeadlineExpires() throws Exception {
+    long now = System.currentTimeMillis();
+    Date since = new Date(now - 100000);
+    when(connector.getBuildsSince(since)).thenReturn(Arrays.asList(new Build("1", now - 75000, "SUCCESS", true, 25000)));
+    cache.getBuildsSince(connector, since);
+
+    when(connector.getBuildsSince(any(Date.class))).thenThrow(new DeadlineExceededException());
+    BuildSeries builds = cache.getBuildsSince(connector, since);
+
+    assertThat(builds).hasSize(1);
+    assertThat(builds.getCoverage()).isGreaterThan(0.4).isLessThan(0.6);
+  }
+
+  @Test
+  public void shouldNotCacheIncompleteFetch() throws Exception {
+    BuildSeries partial = BuildSeries.of(Arrays.asList(new Build("2", 20000L, "SUCCESS", true, 100)));
+    partial.setCoverage(0.5);
+    when(connector.getBuildsSince(new Date(1000L))).thenReturn(partial);
+
+    BuildSeries builds = cache.getBuildsSince(connector, new Date(1000L));
+
+    assertThat(builds).hasSize(1);
+    assertThat(builds.getCoverage()).isEqualTo(0.5);
+    assertThat(BuildHistoryCache.read(cache.getFile("http://teamcity", "Project_Install")).builds).isEmpty();
+  }
+
+  @Test
+  public void shouldComputeTimeCoverage() {
+    BuildSeries cached = BuildSeries.of(Arrays.asList(new Build("1", 300L, "SUCCESS", true, 200)));
+
+    assertThat(BuildHistoryCache.getTimeCoverage(cached, 0L, 1000L)).isEqualTo(0.5);
+    assertThat(BuildHistoryCache.getTimeCoverage(new BuildSeries(), 0L, 1000L)).isEqualTo(0.0);
+  }
+
+  @Test
+  public void shouldUseOneFilePerBuildType() throws Exception {
+    assertThat(cache.getFile("http://teamcity", "A")).isNotEqualTo(cache.getFile("http://teamcity", "B"));
+    assertThat(cache.getFile("http://teamcity", "A")).isEqualTo(cache.getFile("http://teamcity", "A"));
+  }
+}
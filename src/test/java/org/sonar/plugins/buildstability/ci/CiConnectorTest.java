@@ -19,22 +19,70 @@
  */
 package org.sonar.plugins.buildstability.ci;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
 import org.dom4j.Element;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.measures.Measure;
+import org.sonar.plugins.buildstability.analysis.BuildAnalyser;
 import org.sonar.plugins.buildstability.ci.api.AbstractServer;
 import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.BuildPage;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+import org.sonar.plugins.buildstability.ci.api.CiBackend;
 import org.sonar.plugins.buildstability.ci.api.Unmarshaller;
+import org.sonar.plugins.buildstability.ci.teamcity.TeamCityBuildUnmarshaller;
+import org.sonar.plugins.buildstability.ci.teamcity.TeamCityDates;
+import org.sonar.plugins.buildstability.ci.teamcity.TeamCityServer;
 import org.sonar.plugins.buildstability.util.MockHttpServerInterceptor;
 
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -47,13 +95,22 @@ public class CiConnectorTest {
 
   @Rule
   public MockHttpServerInterceptor httpServer = new MockHttpServerInterceptor();
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
   private Unmarshaller<Build> unmarshaller;
   private Build lastBuild;
 
+  /**
+   * Start of the analysed period in the Jenkins fixtures, 2013-11-24 at midnight UTC.
+   */
+  private static final long JENKINS_SINCE = 1385251200000L;
+
   @Before
   public void setUp() throws Exception {
     server = mock(AbstractServer.class);
+    CircuitBreaker.resetAll();
     connector = new CiConnector(server);
+    connector.setRetryPolicy(new RetryPolicy(3, 1, 1));
     when(server.getLastBuildUrl()).thenReturn("http://localhost:" + httpServer.getPort());
     unmarshaller = mock(Unmarshaller.class);
     when(server.getBuildUnmarshaller()).thenReturn(unmarshaller);
@@ -157,4 +214,838 @@ public class CiConnectorTest {
 
     assertThat(connector.getBuildsSince(sdf.parse("01/04/2013"))).hasSize(2);
   }
+
+  @Test
+  public void testGetBuildsSinceInOneRequest() throws Exception {
+    when(server.getBuildUrlSince(any(Date.class))).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    // No other response is queued: any per-build request would fail
+    httpServer.addMockResponseData(resource("teamcity/builds.xml"));
+
+    List<Build> builds = connector.getBuildsSince(new Date());
+
+    assertThat(builds).hasSize(3);
+    assertThat(builds.get(1).getNumberAsString()).isEqualTo("7");
+    assertThat(builds.get(1).getDuration()).isEqualTo(45000.0);
+  }
+
+  @Test
+  public void testGetBuildsSinceFollowsNextPages() throws Exception {
+    when(server.getBuildUrlSince(any(Date.class))).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getPageUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort() + "/page");
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponseData(resource("teamcity/builds-page.xml"));
+    httpServer.addMockResponseData(resource("teamcity/builds.xml"));
+
+    List<Build> builds = connector.getBuildsSince(new Date());
+
+    verify(server).getPageUrl("/httpAuth/app/rest/buildTypes/id:bt1/builds?locator=sinceDate:20131124T000000%2B0000,count:2,start:2");
+    assertThat(builds).hasSize(5);
+    assertThat(builds.get(0).getNumberAsString()).isEqualTo("10");
+    assertThat(builds.get(4).getNumberAsString()).isEqualTo("6");
+    assertThat(builds instanceof BuildPage).isFalse();
+  }
+
+  @Test
+  public void testGetBuildsSinceFollowsNextPagesWithSharedPoolTransport() throws Exception {
+    connector.setTransport(new SharedPoolHttpTransport(SharedHttpClient.get(), SharedHttpClient.getExecutor()));
+    when(server.getBuildUrlSince(any(Date.class))).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getPageUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort() + "/page");
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponseData(resource("teamcity/builds-page.xml"));
+    httpServer.addMockResponseData(resource("teamcity/builds.xml"));
+
+    assertThat(connector.getBuildsSince(new Date())).hasSize(5);
+  }
+
+  @Test
+  public void testGetBuildsSinceFollowsNextJsonPages() throws Exception {
+    connector.setAcceptJson(true);
+    when(server.getBuildUrlSince(any(Date.class))).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getPageUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort() + "/page");
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponse(200, "application/json", resource("teamcity/builds-page.json"));
+    httpServer.addMockResponse(200, "application/json", resource("teamcity/builds.json"));
+
+    List<Build> builds = connector.getBuildsSince(new Date());
+
+    assertThat(builds).hasSize(5);
+    assertThat(builds.get(2).getNumberAsString()).isEqualTo("8");
+  }
+
+  @Test
+  public void testGetBuildsSinceIgnoresLinksWithoutPagination() throws Exception {
+    connector.setPagination(CiBackend.Pagination.NONE);
+    when(server.getBuildUrlSince(any(Date.class))).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponseData(resource("teamcity/builds-page.xml"));
+
+    assertThat(connector.getBuildsSince(new Date())).hasSize(2);
+    verify(server, never()).getPageUrl(anyString());
+  }
+
+  @Test
+  public void testGetBuildsSinceListsSummariesWithoutBulkList() throws Exception {
+    BuildServerTransport transport = new BuildServerTransport(10);
+    connector.setTransport(transport);
+    connector.setBulkList(false);
+    when(server.getBuildSummaryUrlSince(any(Date.class))).thenReturn("http://ci/builds");
+    answerBuildUrls();
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+
+    assertThat(connector.getBuildsSince(new Date())).hasSize(10);
+    verify(server, never()).getBuildUrlSince(any(Date.class));
+    assertThat(transport.fetched).hasSize(10);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testRangePaginationRequiresRangeListing() {
+    connector.setPagination(CiBackend.Pagination.RANGE);
+  }
+
+  @Test
+  public void testRetryThrottledDetailsOnlyInFetcher() throws Exception {
+    BuildServerTransport transport = new BuildServerTransport(1);
+    transport.throttled.set(Integer.MAX_VALUE);
+    connector.setTransport(transport);
+    connector.setBulkList(false);
+    when(server.getBuildSummaryUrlSince(any(Date.class))).thenReturn("http://ci/builds");
+    answerBuildUrls();
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+
+    try {
+      connector.getBuildsSince(new Date());
+      fail();
+    } catch (CiHttpException e) {
+      assertThat(e.getStatusCode()).isEqualTo(503);
+    }
+    // Attempts of the fetcher only, not multiplied by those of the retry policy
+    assertThat(transport.fetched).hasSize(3);
+  }
+
+  @Test
+  public void testKeepCircuitClosedWhileThrottled() throws Exception {
+    int burst = CircuitBreaker.FAILURE_THRESHOLD + 1;
+    BuildServerTransport transport = new BuildServerTransport(10, 3, 4);
+    transport.throttledBurst = new CountDownLatch(burst);
+    connector.setTransport(transport);
+    connector.setMaxConcurrentRequests(burst);
+    connector.setBulkList(false);
+    when(server.getBuildSummaryUrlSince(any(Date.class))).thenReturn("http://ci/builds");
+    answerBuildUrls();
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+
+    List<Build> builds = connector.getBuildsSince(new Date(transport.getTimestamp(0)));
+
+    assertThat(builds).hasSize(10);
+    assertThat(transport.fetched).hasSize(10 + burst);
+    assertThat(CircuitBreaker.forHost("").isOpen()).isFalse();
+  }
+
+  @Test
+  public void testKeepCircuitClosedWhenDeadlineExpires() throws Exception {
+    assertCircuitClosedWhenDeadlineExpires(false);
+  }
+
+  @Test
+  public void testKeepCircuitClosedWhenDeadlineExpiresWithNonBlockingTransport() throws Exception {
+    assertCircuitClosedWhenDeadlineExpires(true);
+  }
+
+  private void assertCircuitClosedWhenDeadlineExpires(boolean nonBlocking) throws Exception {
+    BuildServerTransport transport = new BuildServerTransport(10);
+    transport.hangDetails = true;
+    transport.nonBlocking = nonBlocking;
+    connector.setTransport(transport);
+    connector.setMaxConcurrentRequests(CircuitBreaker.FAILURE_THRESHOLD + 1);
+    connector.setDeadline(Deadline.after(200, TimeUnit.MILLISECONDS));
+    connector.setBulkList(false);
+    when(server.getBuildSummaryUrlSince(any(Date.class))).thenReturn("http://ci/builds");
+    answerBuildUrls();
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+
+    try {
+      connector.getBuildsSince(new Date(transport.getTimestamp(0)));
+    } catch (DeadlineExceededException e) {
+      // details given up
+    }
+
+    assertThat(transport.fetched.size()).isGreaterThan(CircuitBreaker.FAILURE_THRESHOLD);
+    assertThat(CircuitBreaker.forHost("").isOpen()).isFalse();
+  }
+
+  @Test
+  public void testStopJenkinsRangesAtShortRange() throws Exception {
+    CiConnector jenkins = CiFactory.create("Jenkins", "http://localhost:" + httpServer.getPort() + "/job/Install/", "", "", false);
+    jenkins.setRangeSize(2);
+    httpServer.addMockResponseData(resource("jenkins/builds-range-0.xml"));
+    httpServer.addMockResponseData("<?xml version=\"1.0\" encoding=\"UTF-8\"?><freeStyleProject><allBuild>"
+      + "<building>false</building><duration>45000</duration><number>7</number><result>FAILURE</result>"
+      + "<timestamp>1385272800000</timestamp></allBuild></freeStyleProject>");
+    httpServer.addMockResponseData(resource("jenkins/builds-range-2.xml"));
+
+    List<Build> builds = jenkins.getBuildsSince(new Date(JENKINS_SINCE));
+
+    // The first range is full although its running build is left out, the second one is the end of the list
+    assertThat(builds).hasSize(2);
+    assertThat(httpServer.getRequests()).hasSize(2);
+  }
+
+  @Test
+  public void testSendJenkinsApiTokenAsPassword() throws Exception {
+    CiConnector jenkins = CiFactory.create("Jenkins", "http://localhost:" + httpServer.getPort() + "/job/Install/", "user", "", "0123abcd", false);
+    httpServer.addMockResponseData(resource("jenkins/builds-range-2.xml"));
+
+    jenkins.getBuildsSince(new Date(JENKINS_SINCE));
+
+    assertThat(httpServer.getRequestHeader(0, "Authorization")).isEqualTo("Basic dXNlcjowMTIzYWJjZA==");
+  }
+
+  @Test
+  public void testGetJenkinsBuildsSinceByRanges() throws Exception {
+    CiConnector jenkins = CiFactory.create("Jenkins", "http://localhost:" + httpServer.getPort() + "/job/Install/", "", "", false);
+    jenkins.setRangeSize(2);
+    httpServer.addMockResponseData(resource("jenkins/builds-range-0.xml"));
+    httpServer.addMockResponseData(resource("jenkins/builds-range-1.xml"));
+    httpServer.addMockResponseData(resource("jenkins/builds-range-2.xml"));
+
+    List<Build> builds = jenkins.getBuildsSince(new Date(JENKINS_SINCE));
+
+    // Running, aborted and older builds are left out, and no build is requested on its own
+    assertThat(builds).hasSize(3);
+    assertThat(builds.get(0).getNumberAsString()).isEqualTo("8");
+    assertThat(builds.get(2).getNumberAsString()).isEqualTo("6");
+    assertThat(httpServer.getRequests()).containsExactly("GET /job/Install/api/xml", "GET /job/Install/api/xml", "GET /job/Install/api/xml");
+    assertThat(httpServer.getRequestQuery(0)).isEqualTo("tree=allBuilds[number,result,timestamp,duration,building]{0,2}");
+    assertThat(httpServer.getRequestQuery(2)).isEqualTo("tree=allBuilds[number,result,timestamp,duration,building]{4,6}");
+  }
+
+  @Test
+  public void testGetJenkinsBuildsSinceStopsAtEmptyRange() throws Exception {
+    CiConnector jenkins = CiFactory.create("Jenkins", "http://localhost:" + httpServer.getPort() + "/job/Install/", "", "", false);
+    jenkins.setRangeSize(2);
+    httpServer.addMockResponseData(resource("jenkins/builds-range-1.xml"));
+    httpServer.addMockResponseData("<freeStyleProject/>");
+
+    assertThat(jenkins.getBuildsSince(new Date(JENKINS_SINCE))).hasSize(2);
+    assertThat(httpServer.getRequests()).hasSize(2);
+  }
+
+  @Test
+  public void testJenkinsAndTeamCityGiveSameMeasures() throws Exception {
+    CiConnector jenkins = CiFactory.create("Jenkins", "http://localhost:" + httpServer.getPort() + "/job/Install/", "", "", false);
+    jenkins.setRangeSize(2);
+    httpServer.addMockResponseData(resource("jenkins/builds-range-0.xml"));
+    httpServer.addMockResponseData(resource("jenkins/builds-range-1.xml"));
+    httpServer.addMockResponseData(resource("jenkins/builds-range-2.xml"));
+    List<String> jenkinsMeasures = measure(jenkins.getBuildsSince(new Date(JENKINS_SINCE)));
+
+    CiConnector teamCity = CiFactory.create("TeamCity", "http://localhost:" + httpServer.getPort() + "/viewType.html?buildTypeId=bt1", "", "", false);
+    httpServer.addMockResponseData(resource("teamcity/builds.xml"));
+    List<String> teamCityMeasures = measure(teamCity.getBuildsSince(new Date(JENKINS_SINCE)));
+
+    assertThat(jenkinsMeasures).hasSize(teamCityMeasures.size());
+    assertThat(jenkinsMeasures).isEqualTo(teamCityMeasures);
+  }
+
+  @Test(expected = CiHttpException.class)
+  public void testGetBuildsSinceFailsWhenNextPageIsMissing() throws Exception {
+    when(server.getBuildUrlSince(any(Date.class))).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getPageUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort() + "/page");
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponseData(resource("teamcity/builds-page.xml"));
+    httpServer.addMockResponseStatusAndData(404, "");
+
+    connector.getBuildsSince(new Date());
+  }
+
+  @Test
+  public void testGetBuildsSinceFallsBackToBuildDetails() throws Exception {
+    when(server.getBuildUrlSince(any(Date.class))).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponseData(resource("teamcity/build-summaries.xml"));
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+
+    List<Build> builds = connector.getBuildsSince(new Date());
+
+    assertThat(builds).hasSize(2);
+    assertThat(builds.get(0).getTimestamp()).isGreaterThan(0);
+  }
+
+  @Test
+  public void testGetBuildsSinceWithSharedPoolTransport() throws Exception {
+    connector.setTransport(new SharedPoolHttpTransport(SharedHttpClient.get(), SharedHttpClient.getExecutor()));
+    when(server.getBuildUrlSince(any(Date.class))).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponseData(resource("teamcity/build-summaries.xml"));
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+
+    List<Build> builds = connector.getBuildsSince(new Date());
+
+    assertThat(builds).hasSize(2);
+    assertThat(builds.get(0).getTimestamp()).isGreaterThan(0);
+    assertThat(builds.get(1).getTimestamp()).isGreaterThan(0);
+  }
+
+  @Test
+  public void testSharedPoolTransportRetriesFailedRequests() throws Exception {
+    connector.setTransport(new SharedPoolHttpTransport(SharedHttpClient.get(), SharedHttpClient.getExecutor()));
+    when(server.getBuildUrlSince(any(Date.class))).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponseData(resource("teamcity/build-summaries.xml"));
+    httpServer.addMockResponseStatusAndData(503, "");
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+
+    List<Build> builds = connector.getBuildsSince(new Date());
+
+    assertThat(builds).hasSize(2);
+  }
+
+  @Test
+  public void testBlockingTransportByDefault() {
+    assertThat(connector.getTransport().isNonBlocking()).isFalse();
+  }
+
+  @Test
+  public void testGetBuildsSinceAsJson() throws Exception {
+    connector.setAcceptJson(true);
+    when(server.getBuildUrlSince(any(Date.class))).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponse(200, "application/json;charset=utf-8", resource("teamcity/builds.json"));
+
+    List<Build> builds = connector.getBuildsSince(new Date());
+
+    assertThat(builds).hasSize(3);
+    assertThat(builds.get(1).getNumberAsString()).isEqualTo("7");
+    assertThat(builds.get(1).getDuration()).isEqualTo(45000.0);
+  }
+
+  @Test
+  public void testFallBackToXmlWhenServerIgnoresJson() throws Exception {
+    connector.setAcceptJson(true);
+    when(server.getBuildUrlSince(any(Date.class))).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponseData(resource("teamcity/builds.xml"));
+
+    assertThat(connector.getBuildsSince(new Date())).hasSize(3);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testInvalidJsonResponse() throws Exception {
+    connector.setAcceptJson(true);
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponse(200, "application/json", "{\"number\":\"1\",");
+
+    connector.getBuild("1");
+  }
+
+  @Test
+  public void testDecompressGzipResponses() throws Exception {
+    when(server.getBuildUrlSince(any(Date.class))).thenReturn("http://localhost/builds");
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    byte[] xml = resource("teamcity/builds.xml").getBytes("UTF-8");
+    byte[] gzip = compress("gzip", xml);
+    QueuedTransport transport = new QueuedTransport().add(response(200, "gzip", gzip));
+    connector.setTransport(transport);
+
+    assertThat(connector.getBuildsSince(new Date())).hasSize(3);
+    assertThat(transport.requests.get(0).getFirstHeader("Accept-Encoding").getValue()).contains("gzip");
+    assertThat(connector.getBytesReceived()).isEqualTo(gzip.length).isLessThan(xml.length);
+    assertThat(connector.getBytesDecoded()).isEqualTo(xml.length);
+  }
+
+  @Test
+  public void testDecompressDeflateResponses() throws Exception {
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost/build");
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    byte[] xml = resource("teamcity/result.xml").getBytes("UTF-8");
+    connector.setTransport(new QueuedTransport().add(response(200, "deflate", compress("deflate", xml))));
+
+    assertThat(connector.getBuild("6").getDuration()).isEqualTo(20000.0);
+    assertThat(connector.getBytesDecoded()).isEqualTo(xml.length);
+  }
+
+  @Test
+  public void testDecompressRawDeflateResponses() throws Exception {
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost/build");
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    connector.setTransport(new QueuedTransport().add(response(200, "deflate", compress("raw", resource("teamcity/result.xml").getBytes("UTF-8")))));
+
+    assertThat(connector.getBuild("6").getDuration()).isEqualTo(20000.0);
+  }
+
+  @Test
+  public void testAnswerNotModifiedFromResponseCache() throws Exception {
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost/build");
+    when(unmarshaller.toModel(any(XMLStreamReader.class))).thenReturn(new Build("6", 1000L, "SUCCESS", true, 200));
+    connector.setResponseCache(new ResponseCache(temp.newFile(), ResponseCache.MAX_SIZE));
+    HttpResponse ok = response(200, null, resource("teamcity/result.xml").getBytes("UTF-8"));
+    ok.setHeader("ETag", "\"v1\"");
+    ok.setHeader("Last-Modified", "Sun, 24 Nov 2013 05:35:20 GMT");
+    QueuedTransport transport = new QueuedTransport().add(ok).add(response(304, null, new byte[0]));
+    connector.setTransport(transport);
+
+    connector.getBuild("6");
+    Build build = connector.getBuild("6");
+
+    assertThat(build.getNumberAsString()).isEqualTo("6");
+    assertThat(build.getDuration()).isEqualTo(200.0);
+    assertThat(transport.requests.get(0).getFirstHeader("If-None-Match")).isNull();
+    assertThat(transport.requests.get(1).getFirstHeader("If-None-Match").getValue()).isEqualTo("\"v1\"");
+    assertThat(transport.requests.get(1).getFirstHeader("If-Modified-Since").getValue()).isEqualTo("Sun, 24 Nov 2013 05:35:20 GMT");
+    verify(unmarshaller, times(1)).toModel(any(XMLStreamReader.class));
+  }
+
+  @Test
+  public void testFetchOnlyPlannedDetails() throws Exception {
+    // Builds 1 to 200, an hour apart, newest first: two failure runs and a window starting between builds 149 and 150
+    BuildServerTransport transport = new BuildServerTransport(200, 50, 59, 120, 121);
+    connector.setTransport(transport);
+    connector.setDetailPlanner(new DetailPlanner(0.1, transport.getTimestamp(150) - 30 * 60 * 1000));
+    when(server.getBuildUrlSince(any(Date.class))).thenReturn("http://ci/builds");
+    answerBuildUrls();
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+
+    BuildSeries builds = (BuildSeries) connector.getBuildsSince(new Date());
+
+    assertThat(transport.fetched.size()).isLessThan(50);
+    assertThat(transport.fetched).contains("1", "200", "49", "50", "59", "60", "119", "120", "121", "122", "149", "150");
+    assertThat(builds).hasSize(200);
+    assertThat(builds.getCoverage()).isEqualTo(1.0);
+    int failed = 0;
+    for (int i = 0; i < builds.size(); i++) {
+      int number = Integer.parseInt(builds.getNumber(i));
+      assertThat(builds.getTimestamp(i)).isEqualTo(transport.getTimestamp(number));
+      assertThat(builds.isEstimated(i)).isEqualTo(!transport.fetched.contains(builds.getNumber(i)));
+      failed += builds.isSuccessful(i) ? 0 : 1;
+    }
+    assertThat(failed).isEqualTo(12);
+  }
+
+  @Test
+  public void testFetchFixedNumberOfDetailsInApproximateMode() throws Exception {
+    BuildServerTransport transport = new BuildServerTransport(1000, 100, 199);
+    connector.setTransport(transport);
+    connector.setDetailPlanner(new ReservoirPlanner(20));
+    when(server.getBuildSummaryUrlSince(any(Date.class))).thenReturn("http://ci/builds");
+    answerBuildUrls();
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+
+    BuildSeries builds = (BuildSeries) connector.getBuildsSince(new Date());
+
+    verify(server, never()).getBuildUrlSince(any(Date.class));
+    assertThat(transport.fetched.size()).isLessThanOrEqualTo(22);
+    assertThat(builds).hasSize(1000);
+    int failed = 0;
+    for (int i = 0; i < builds.size(); i++) {
+      failed += builds.isSuccessful(i) ? 0 : 1;
+    }
+    assertThat(failed).isEqualTo(100);
+  }
+
+  @Test
+  public void testSendBasicCredentialsPreemptivelyAndReuseSession() throws Exception {
+    httpServer.setResponseHeader("Set-Cookie", "TCSESSIONID=abc; Path=/");
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+    CiConnector connector = new CiConnector(teamCity("user", "pwd", null, false));
+
+    assertThat(connector.getBuild("6").isSuccessful()).isTrue();
+    assertThat(new CiConnector(teamCity("user", "pwd", null, false)).getLastBuild().isSuccessful()).isTrue();
+
+    // No request answered by a 401 challenge, the session of the first one is reused by the next connectors
+    assertThat(httpServer.getRequests()).hasSize(2);
+    assertThat(httpServer.getRequestHeader(0, "Authorization")).startsWith("Basic ");
+    assertThat(httpServer.getRequestHeader(1, "Authorization")).startsWith("Basic ");
+    assertThat(httpServer.getRequestHeader(1, "Cookie")).contains("TCSESSIONID=abc");
+  }
+
+  @Test
+  public void testSendBasicCredentialsPreemptivelyWithSharedPoolTransport() throws Exception {
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+    CiConnector connector = new CiConnector(teamCity("user", "pwd", null, false));
+    connector.setTransport(new SharedPoolHttpTransport(SharedHttpClient.get(), SharedHttpClient.getExecutor()));
+
+    assertThat(connector.getBuild("6").isSuccessful()).isTrue();
+    assertThat(httpServer.getRequests()).hasSize(1);
+    assertThat(httpServer.getRequestHeader(0, "Authorization")).startsWith("Basic ");
+  }
+
+  @Test
+  public void testLogInWithJSecurityCheck() throws Exception {
+    httpServer.setResponseHeader("Set-Cookie", "JSESSIONID=xyz; Path=/");
+    httpServer.addMockResponseData("");
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+    CiConnector connector = new CiConnector(teamCity("user", "pwd", null, true));
+
+    assertThat(connector.getBuild("6").isSuccessful()).isTrue();
+
+    assertThat(httpServer.getRequests()).hasSize(2);
+    assertThat(httpServer.getRequests().get(0)).isEqualTo("POST /j_security_check");
+    assertThat(httpServer.getRequestHeader(1, "Cookie")).contains("JSESSIONID=xyz");
+  }
+
+  @Test
+  public void testSendAccessToken() throws Exception {
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+    CiConnector connector = new CiConnector(teamCity("user", "pwd", "t0k3n", false));
+
+    assertThat(connector.getBuild("6").isSuccessful()).isTrue();
+
+    assertThat(httpServer.getRequests()).hasSize(1);
+    assertThat(httpServer.getRequests().get(0)).startsWith("GET /app/rest/");
+    assertThat(httpServer.getRequestHeader(0, "Authorization")).isEqualTo("Bearer t0k3n");
+  }
+
+  @Test
+  public void testGetBuildNotFound() throws Exception {
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort());
+    httpServer.addMockResponseStatusAndData(404, "");
+
+    assertThat(connector.getBuild("1")).isNull();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testInvalidXmlResponse() throws Exception {
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponseData("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><build></foo>");
+
+    connector.getBuild("1");
+  }
+
+  @Test
+  public void testRetryTransientErrors() throws Exception {
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponseStatusAndData(502, "");
+    httpServer.addMockResponseStatusAndData(503, "");
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+
+    assertThat(connector.getBuild("1").getTimestamp()).isGreaterThan(0);
+  }
+
+  @Test
+  public void testGiveUpAfterMaxAttempts() throws Exception {
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort());
+    for (int i = 0; i < 3; i++) {
+      httpServer.addMockResponseStatusAndData(502, "");
+    }
+
+    try {
+      connector.getBuild("1");
+      fail();
+    } catch (CiHttpException e) {
+      assertThat(e.getStatusCode()).isEqualTo(502);
+    }
+  }
+
+  @Test
+  public void testDoNotRetryClientErrors() throws Exception {
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponseStatusAndData(401, "");
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+
+    try {
+      connector.getBuild("1");
+      fail();
+    } catch (CiHttpException e) {
+      assertThat(e.getStatusCode()).isEqualTo(401);
+    }
+  }
+
+  @Test
+  public void testFailFastWhenCircuitIsOpen() throws Exception {
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort());
+    for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+      httpServer.addMockResponseStatusAndData(504, "");
+    }
+    for (int i = 0; i < 2; i++) {
+      try {
+        connector.getBuild("1");
+        fail();
+      } catch (CiHttpException e) {
+        // expected
+      }
+    }
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+
+    try {
+      connector.getBuild("1");
+      fail();
+    } catch (CiHttpException e) {
+      fail("Request should not have been sent");
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).contains("Too many failures");
+    }
+  }
+
+  @Test
+  public void testCloseCircuitAfterTrialFailingToParse() throws Exception {
+    CircuitBreaker.register("", new CircuitBreaker("", 1, 10, TimeUnit.MILLISECONDS));
+    connector = new CiConnector(server);
+    connector.setRetryPolicy(new RetryPolicy(3, 1, 1));
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort());
+    when(server.getBuildUnmarshaller()).thenReturn(new TeamCityBuildUnmarshaller());
+    httpServer.addMockResponseStatusAndData(504, "");
+    httpServer.addMockResponseData("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><build></foo>");
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+
+    try {
+      connector.getBuild("1");
+      fail();
+    } catch (CiHttpException e) {
+      // opens the circuit
+    }
+    Thread.sleep(20);
+    try {
+      connector.getBuild("1");
+      fail();
+    } catch (IllegalStateException e) {
+      // the trial request failed to parse
+      assertThat(e.getMessage()).contains("Unable to parse");
+    }
+    Thread.sleep(20);
+
+    assertThat(connector.getBuild("1").getTimestamp()).isGreaterThan(0);
+  }
+
+  @Test
+  public void testNoRequestOnceDeadlineExpired() throws Exception {
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort());
+    connector.setDeadline(Deadline.after(1, TimeUnit.NANOSECONDS));
+    Thread.sleep(1);
+
+    try {
+      connector.getBuild("1");
+      fail();
+    } catch (DeadlineExceededException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testGiveUpWhenRetryAfterExceedsDeadline() throws Exception {
+    when(server.getBuildUrl(anyString())).thenReturn("http://localhost:" + httpServer.getPort());
+    connector.setDeadline(Deadline.after(10, TimeUnit.SECONDS));
+    httpServer.addMockResponseStatusAndData(503, "");
+    httpServer.setResponseHeader("Retry-After", "3600");
+    httpServer.addMockResponseData(resource("teamcity/result.xml"));
+
+    long start = System.currentTimeMillis();
+    try {
+      connector.getBuild("1");
+      fail();
+    } catch (DeadlineExceededException e) {
+      assertThat(System.currentTimeMillis() - start).isLessThan(5000);
+    }
+    assertThat(httpServer.getRequests()).hasSize(1);
+  }
+
+  @Test
+  public void testRetryAfter() throws Exception {
+    HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Service Unavailable");
+    assertThat(CiConnector.getRetryAfter(response)).isEqualTo(-1);
+
+    response.setHeader("Retry-After", "120");
+    assertThat(CiConnector.getRetryAfter(response)).isEqualTo(120000);
+
+    response.setHeader("Retry-After", DateUtils.formatDate(new Date(System.currentTimeMillis() + 60000)));
+    assertThat(CiConnector.getRetryAfter(response)).isGreaterThan(50000).isLessThanOrEqualTo(60000);
+
+    response.setHeader("Retry-After", "soon");
+    assertThat(CiConnector.getRetryAfter(response)).isEqualTo(-1);
+  }
+
+  private static byte[] compress(String encoding, byte[] data) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DeflaterOutputStream out;
+    if ("gzip".equals(encoding)) {
+      out = new GZIPOutputStream(bytes);
+    } else {
+      out = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, "raw".equals(encoding)));
+    }
+    out.write(data);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private TeamCityServer teamCity(String username, String password, String token, boolean useJSecurityCheck) {
+    TeamCityServer teamCity = new TeamCityServer();
+    teamCity.setHost("http://localhost:" + httpServer.getPort());
+    teamCity.setKey("Key");
+    teamCity.setUsername(username);
+    teamCity.setPassword(password);
+    teamCity.setToken(token);
+    teamCity.setUseJSecurityCheck(useJSecurityCheck);
+    return teamCity;
+  }
+
+  /**
+   * Measures of every metric for the given builds, as "key=value" or "key=data".
+   */
+  private static List<String> measure(List<Build> builds) {
+    SensorContext context = mock(SensorContext.class);
+    BuildAnalyser.create(JENKINS_SINCE + 7 * 24L * 60 * 60 * 1000, 7).analyse(BuildSeries.of(builds), context);
+    ArgumentCaptor<Measure> measures = ArgumentCaptor.forClass(Measure.class);
+    verify(context, atLeastOnce()).saveMeasure(measures.capture());
+    List<String> result = new ArrayList<String>();
+    for (Measure measure : measures.getAllValues()) {
+      result.add(measure.getMetricKey() + "=" + (measure.getData() == null ? measure.getValue() : measure.getData()));
+    }
+    return result;
+  }
+
+  private String resource(String path) throws Exception {
+    return IOUtils.toString(getClass().getResourceAsStream(path), "UTF-8");
+  }
+
+  private static HttpResponse response(int status, String encoding, byte[] body) {
+    HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+    ByteArrayEntity entity = new ByteArrayEntity(body);
+    entity.setContentType("text/xml;charset=utf-8");
+    if (encoding != null) {
+      entity.setContentEncoding(encoding);
+    }
+    response.setEntity(entity);
+    return response;
+  }
+
+  /**
+   * Build URLs as answered by {@link BuildServerTransport}.
+   */
+  private void answerBuildUrls() {
+    when(server.getBuildUrl(anyString())).thenAnswer(new Answer<String>() {
+      @Override
+      public String answer(InvocationOnMock invocation) {
+        return "http://ci/build/" + invocation.getArguments()[0];
+      }
+    });
+  }
+
+  /**
+   * Answers the list of builds with summaries only, and the details of each build from its number.
+   */
+  private static class BuildServerTransport implements HttpTransport {
+    private static final long BASE = 1385271300000L;
+    private static final long HOUR = 60 * 60 * 1000L;
+    private final int count;
+    private final List<Integer> failures = new ArrayList<Integer>();
+    private final List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger throttled = new AtomicInteger();
+    private final Set<Integer> attempted = Collections.synchronizedSet(new HashSet<Integer>());
+    private CountDownLatch throttledBurst = new CountDownLatch(0);
+    private boolean hangDetails;
+    private boolean nonBlocking;
+
+    /**
+     * @param failureRuns first and last numbers of each run of failed builds
+     */
+    BuildServerTransport(int count, int... failureRuns) {
+      this.count = count;
+      for (int i = 0; i < failureRuns.length; i += 2) {
+        for (int number = failureRuns[i]; number <= failureRuns[i + 1]; number++) {
+          failures.add(number);
+        }
+      }
+    }
+
+    long getTimestamp(int number) {
+      return BASE + number * HOUR;
+    }
+
+    private String status(int number) {
+      return failures.contains(number) ? "FAILURE" : "SUCCESS";
+    }
+
+    @Override
+    public Future<HttpResponse> send(HttpGet request, HttpContext context, FutureCallback<HttpResponse> callback) {
+      String path = request.getURI().getPath();
+      StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      if (path.startsWith("/build/")) {
+        int number = Integer.parseInt(path.substring("/build/".length()));
+        fetched.add(String.valueOf(number));
+        if (hangDetails) {
+          return new BasicFuture<HttpResponse>(callback);
+        }
+        if (throttled.getAndDecrement() > 0 || attempted.add(number) && awaitBurst()) {
+          HttpResponse response = response(503, null, new byte[0]);
+          response.setHeader("Retry-After", "0");
+          BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(callback);
+          future.completed(response);
+          return future;
+        }
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        xml.append("<build number=\"").append(number).append("\" status=\"").append(status(number)).append("\">")
+          .append("<startDate>").append(TeamCityDates.format(getTimestamp(number), utc)).append("</startDate>")
+          .append("<finishDate>").append(TeamCityDates.format(getTimestamp(number) + 60000, utc)).append("</finishDate>")
+          .append("</build>");
+      } else {
+        xml.append("<builds count=\"").append(count).append("\">");
+        for (int number = count; number >= 1; number--) {
+          xml.append("<build number=\"").append(number).append("\" status=\"").append(status(number)).append("\"/>");
+        }
+        xml.append("</builds>");
+      }
+      BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(callback);
+      future.completed(response(200, null, xml.toString().getBytes(Charset.forName("UTF-8"))));
+      return future;
+    }
+
+    /**
+     * Holds the first requests of the burst until all of them are in flight, so that they are all throttled before
+     * any of them is retried.
+     */
+    private boolean awaitBurst() {
+      if (throttledBurst.getCount() == 0) {
+        return false;
+      }
+      throttledBurst.countDown();
+      try {
+        throttledBurst.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return true;
+    }
+
+    @Override
+    public boolean isNonBlocking() {
+      return nonBlocking;
+    }
+  }
+
+  /**
+   * Answers requests with the given responses, in order.
+   */
+  private static class QueuedTransport implements HttpTransport {
+    private final Queue<HttpResponse> responses = new LinkedList<HttpResponse>();
+    private final List<HttpGet> requests = new ArrayList<HttpGet>();
+
+    QueuedTransport add(HttpResponse response) {
+      responses.add(response);
+      return this;
+    }
+
+    @Override
+    public Future<HttpResponse> send(HttpGet request, HttpContext context, FutureCallback<HttpResponse> callback) {
+      requests.add(request);
+      BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(callback);
+      future.completed(responses.remove());
+      return future;
+    }
+
+    @Override
+    public boolean isNonBlocking() {
+      return false;
+    }
+  }
 }
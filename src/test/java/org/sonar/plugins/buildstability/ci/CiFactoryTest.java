@@ -20,6 +20,11 @@
 package org.sonar.plugins.buildstability.ci;
 
 import org.junit.Test;
+import org.sonar.plugins.buildstability.ci.api.AbstractServer;
+import org.sonar.plugins.buildstability.ci.api.CiBackend;
+import org.sonar.plugins.buildstability.ci.jenkins.JenkinsBackend;
+import org.sonar.plugins.buildstability.ci.jenkins.JenkinsServer;
+import org.sonar.plugins.buildstability.ci.teamcity.TeamCityBackend;
 import org.sonar.plugins.buildstability.ci.teamcity.TeamCityServer;
 
 import static org.fest.assertions.Assertions.assertThat;
@@ -38,5 +43,84 @@ public class CiFactoryTest {
     assertThat(connector.getServer().getHost()).isEqualTo("http://teamcity:port");
     assertThat(connector.getServer().getKey()).isEqualTo("SonarBuildStability_Install");
     assertThat(connector.getServer()).isInstanceOf(TeamCityServer.class);
+    assertThat(connector.getServer().getToken()).isNull();
+    assertThat(connector.getServer().isUseJSecurityCheck()).isFalse();
+  }
+
+  @Test
+  public void testBackendsAreDiscoveredOnce() {
+    assertThat(CiFactory.getBackend("TeamCity")).isInstanceOf(TeamCityBackend.class);
+    assertThat(CiFactory.getBackend("teamcity")).isSameAs(CiFactory.getBackend("TeamCity"));
+    assertThat(CiFactory.getBackend("Jenkins")).isInstanceOf(JenkinsBackend.class);
+    assertThat(CiFactory.getBackends()).hasSize(3);
+    assertThat(CiFactory.getBackend("Hudson")).isNull();
+  }
+
+  @Test
+  public void testUnknownSystemOrUrl() {
+    assertThat(CiFactory.create("Hudson", "http://hudson/job/Install", "user", "pwd", false)).isNull();
+    assertThat(CiFactory.create("TeamCity", "http://teamcity/project.html?projectId=Install", "user", "pwd", false)).isNull();
+  }
+
+  @Test
+  public void testChooseListStrategyOfBackend() {
+    CiConnector teamCity = CiFactory.create("TeamCity", "http://teamcity/viewType.html?buildTypeId=Install", "", "", false);
+    assertThat(teamCity.isBulkList()).isTrue();
+    assertThat(teamCity.getPagination()).isEqualTo(CiBackend.Pagination.NEXT_LINK);
+
+    CiConnector plain = CiFactory.create("Plain", "http://plain/builds/Install", "", "", false);
+    assertThat(plain.getServer().getHost()).isEqualTo("http://plain");
+    assertThat(plain.getServer().getKey()).isEqualTo("Install");
+    assertThat(plain.isBulkList()).isFalse();
+    assertThat(plain.getPagination()).isEqualTo(CiBackend.Pagination.NONE);
+  }
+
+  @Test
+  public void testCreateJenkins() {
+    CiConnector connector = CiFactory.create("Jenkins", "http://jenkins:8080/job/Install/", "user", "pwd", false);
+
+    assertThat(connector.getServer()).isInstanceOf(JenkinsServer.class);
+    assertThat(connector.getServer().getHost()).isEqualTo("http://jenkins:8080");
+    assertThat(connector.getServer().getKey()).isEqualTo("Install/");
+    assertThat(connector.isBulkList()).isTrue();
+    assertThat(connector.getPagination()).isEqualTo(CiBackend.Pagination.RANGE);
+  }
+
+  @Test
+  public void testCreateWithTokenAndJSecurityCheck() {
+    CiConnector connector = CiFactory.create("TeamCity", "http://teamcity:port/viewType.html?buildTypeId=SonarBuildStability_Install", "user", "pwd", "token", true);
+
+    assertThat(connector.getServer().getToken()).isEqualTo("token");
+    assertThat(connector.getServer().isUseJSecurityCheck()).isTrue();
+  }
+
+  /**
+   * Backend registered by the test resources, listing summaries without pages.
+   */
+  public static class PlainBackend implements CiBackend {
+    @Override
+    public String getSystem() {
+      return "Plain";
+    }
+
+    @Override
+    public String getUrlPattern() {
+      return "/builds/";
+    }
+
+    @Override
+    public AbstractServer createServer() {
+      return new TeamCityServer();
+    }
+
+    @Override
+    public boolean isBulkListSupported() {
+      return false;
+    }
+
+    @Override
+    public Pagination getPagination() {
+      return Pagination.NONE;
+    }
   }
 }
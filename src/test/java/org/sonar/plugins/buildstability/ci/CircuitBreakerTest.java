@@ -0,0 +1,84 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ivan Li
+ */
+public class CircuitBreakerTest {
+
+  @Test
+  public void shouldOpenAfterConsecutiveFailures() {
+    CircuitBreaker breaker = new CircuitBreaker("host", 3, 1, TimeUnit.HOURS);
+    breaker.recordFailure();
+    breaker.recordFailure();
+    breaker.recordSuccess();
+    breaker.recordFailure();
+    breaker.recordFailure();
+    breaker.acquire();
+    assertThat(breaker.isOpen()).isFalse();
+
+    breaker.recordFailure();
+
+    assertThat(breaker.isOpen()).isTrue();
+    try {
+      breaker.acquire();
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).contains("host");
+    }
+  }
+
+  @Test
+  public void shouldLetOneTrialThroughOnceOpenDurationElapsed() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker("host", 1, 10, TimeUnit.MILLISECONDS);
+    breaker.recordFailure();
+    Thread.sleep(20);
+
+    breaker.acquire();
+    try {
+      breaker.acquire();
+      fail("Only one trial request is allowed");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    breaker.recordFailure();
+    assertThat(breaker.isOpen()).isTrue();
+    Thread.sleep(20);
+    breaker.acquire();
+    breaker.recordSuccess();
+    assertThat(breaker.isOpen()).isFalse();
+    breaker.acquire();
+  }
+
+  @Test
+  public void shouldBeSharedByHost() {
+    assertThat(CircuitBreaker.forHost("http://a")).isSameAs(CircuitBreaker.forHost("http://a"));
+    assertThat(CircuitBreaker.forHost("http://a")).isNotSameAs(CircuitBreaker.forHost("http://b"));
+  }
+}
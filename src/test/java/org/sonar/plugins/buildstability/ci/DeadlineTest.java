@@ -0,0 +1,61 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Test;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ivan Li
+ */
+public class DeadlineTest {
+
+  @Test
+  public void shouldNotAbortWithoutDeadline() {
+    assertThat(Deadline.none().abortOnExpiry(new HttpGet("http://ci"))).isNull();
+    assertThat(Deadline.after(0, TimeUnit.SECONDS)).isSameAs(Deadline.none());
+  }
+
+  @Test
+  public void shouldAbortRequestsStillRunningAtExpiry() throws Exception {
+    HttpGet request = new HttpGet("http://ci");
+    Deadline.after(10, TimeUnit.MILLISECONDS).abortOnExpiry(request);
+    Thread.sleep(200);
+
+    assertThat(request.isAborted()).isTrue();
+  }
+
+  @Test
+  public void shouldForgetCancelledAborts() {
+    Deadline deadline = Deadline.after(1, TimeUnit.HOURS);
+    int pending = Deadline.getPendingAborts();
+    for (int i = 0; i < 100; i++) {
+      Future<?> abort = deadline.abortOnExpiry(new HttpGet("http://ci"));
+      abort.cancel(false);
+    }
+
+    assertThat(Deadline.getPendingAborts()).isEqualTo(pending);
+  }
+}
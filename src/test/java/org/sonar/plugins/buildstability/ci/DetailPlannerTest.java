@@ -0,0 +1,111 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.junit.Test;
+import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+import java.util.BitSet;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ivan Li
+ */
+public class DetailPlannerTest {
+
+  @Test
+  public void shouldPlanEndsStatusChangesAndSamples() {
+    BuildSeries builds = summaries("SUCCESS", "SUCCESS", "SUCCESS", "FAILURE", "FAILURE", "SUCCESS", "SUCCESS", "SUCCESS", "SUCCESS");
+
+    BitSet plan = new DetailPlanner(0.5).plan(builds);
+
+    assertThat(plan.toString()).isEqualTo("{0, 2, 3, 4, 5, 6, 8}");
+  }
+
+  @Test
+  public void shouldNotPlanWithoutStatuses() {
+    BuildSeries builds = summaries("SUCCESS");
+    builds.add("2", 0, null, false, 0);
+
+    assertThat(new DetailPlanner(0.5).canPlan(builds)).isFalse();
+    assertThat(new DetailPlanner(0.5).canPlan(summaries("SUCCESS", "FAILURE"))).isTrue();
+  }
+
+  @Test
+  public void shouldBisectAroundBoundaries() {
+    BuildSeries builds = summaries("SUCCESS", "SUCCESS", "SUCCESS", "SUCCESS", "SUCCESS", "SUCCESS", "SUCCESS", "SUCCESS", "SUCCESS");
+    BitSet known = new BitSet();
+    detail(builds, known, 0);
+    detail(builds, known, 8);
+    DetailPlanner planner = new DetailPlanner(0, 6500);
+
+    assertThat(planner.refine(builds, known).toString()).isEqualTo("{4}");
+    detail(builds, known, 4);
+    assertThat(planner.refine(builds, known).toString()).isEqualTo("{6}");
+    detail(builds, known, 6);
+    assertThat(planner.refine(builds, known).toString()).isEqualTo("{5}");
+    detail(builds, known, 5);
+    assertThat(planner.refine(builds, known).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void shouldEstimateTimestampsBetweenDetails() {
+    BuildSeries builds = summaries("SUCCESS", "SUCCESS", "SUCCESS", "SUCCESS", "SUCCESS", "SUCCESS");
+    BitSet known = new BitSet();
+    detail(builds, known, 1);
+    detail(builds, known, 4);
+
+    new DetailPlanner(0).estimate(builds);
+
+    assertThat(builds.getTimestamp(0)).isEqualTo(2000L);
+    assertThat(builds.getTimestamp(2)).isEqualTo(3000L);
+    assertThat(builds.getTimestamp(3)).isEqualTo(4000L);
+    assertThat(builds.getTimestamp(5)).isEqualTo(5000L);
+    assertThat(builds.isEstimated(0)).isTrue();
+    assertThat(builds.isEstimated(1)).isFalse();
+    assertThat(builds.getDuration(2)).isEqualTo(0);
+    assertThat(builds.hasEstimatedBuilds()).isTrue();
+  }
+
+  @Test
+  public void shouldInterpolate() {
+    assertThat(DetailPlanner.interpolate(1000L, 2000L, 2, 6, 3)).isEqualTo(1250L);
+    assertThat(DetailPlanner.interpolate(1000L, 1000L, 2, 2, 2)).isEqualTo(1000L);
+  }
+
+  private static BuildSeries summaries(String... statuses) {
+    BuildSeries builds = new BuildSeries();
+    for (int i = 0; i < statuses.length; i++) {
+      builds.add(String.valueOf(i + 1), 0, statuses[i], "SUCCESS".equals(statuses[i]), 0);
+    }
+    return builds;
+  }
+
+  /**
+   * Build i started at (i + 1) seconds and lasted 100 ms.
+   */
+  private static void detail(BuildSeries builds, BitSet known, int i) {
+    builds.set(i, new Build(builds.getNumber(i), (i + 1) * 1000L,
+      builds.getResult(i), builds.isSuccessful(i), 100));
+    known.set(i);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ivan Li
+ */
+public class ParallelFetcherTest {
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+
+  @Test
+  public void shouldKeepResultsInOrder() throws Exception {
+    List<Callable<Integer>> requests = new ArrayList<Callable<Integer>>();
+    for (int i = 0; i < 20; i++) {
+      requests.add(request(i, (20 - i) % 5, 0));
+    }
+
+    List<Integer> results = new ParallelFetcher(4).fetchAll(requests);
+
+    assertThat(results).hasSize(20);
+    for (int i = 0; i < 20; i++) {
+      assertThat(results.get(i)).isEqualTo(i);
+    }
+  }
+
+  @Test
+  public void shouldNotExceedMaxConcurrency() throws Exception {
+    List<Callable<Integer>> requests = new ArrayList<Callable<Integer>>();
+    for (int i = 0; i < 30; i++) {
+      requests.add(request(i, 5, 0));
+    }
+
+    new ParallelFetcher(3).fetchAll(requests);
+
+    assertThat(maxInFlight.get()).isLessThanOrEqualTo(3);
+    assertThat(maxInFlight.get()).isGreaterThan(1);
+  }
+
+  @Test
+  public void shouldReduceConcurrencyAndRetryWhenThrottled() throws Exception {
+    ParallelFetcher fetcher = new ParallelFetcher(8);
+    List<Callable<Integer>> requests = new ArrayList<Callable<Integer>>();
+    requests.add(request(0, 0, 503));
+    requests.add(request(1, 0, 0));
+
+    List<Integer> results = fetcher.fetchAll(requests);
+
+    assertThat(results).containsExactly(0, 1);
+    assertThat(fetcher.getLimit()).isLessThan(8);
+  }
+
+  @Test(expected = CiHttpException.class)
+  public void shouldPropagateErrors() throws Exception {
+    List<Callable<Integer>> requests = new ArrayList<Callable<Integer>>();
+    requests.add(request(0, 0, 0));
+    requests.add(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        throw new CiHttpException(500, "Received 500");
+      }
+    });
+
+    new ParallelFetcher(2).fetchAll(requests);
+  }
+
+  @Test
+  public void shouldGiveUpRequestsWhenDeadlineExpires() throws Exception {
+    List<Callable<Integer>> requests = new ArrayList<Callable<Integer>>();
+    requests.add(request(0, 0, 0));
+    for (int i = 1; i < 10; i++) {
+      requests.add(request(i, 5000, 0));
+    }
+    ParallelFetcher fetcher = new ParallelFetcher(2, Deadline.after(200, TimeUnit.MILLISECONDS));
+
+    long start = System.currentTimeMillis();
+    List<Integer> results = fetcher.fetchAll(requests);
+
+    assertThat(System.currentTimeMillis() - start).isLessThan(2000);
+    assertThat(results).hasSize(10);
+    assertThat(results.get(0)).isEqualTo(0);
+    assertThat(results.get(9)).isNull();
+    assertThat(fetcher.getExpired()).isEqualTo(9);
+  }
+
+  /**
+   * A request answering its own index after the given delay, throttled once with the given status when not 0.
+   */
+  private Callable<Integer> request(final int index, final long delay, final int throttleStatus) {
+    return new Callable<Integer>() {
+      private boolean throttled;
+
+      @Override
+      public Integer call() throws Exception {
+        int current = inFlight.incrementAndGet();
+        try {
+          synchronized (maxInFlight) {
+            maxInFlight.set(Math.max(maxInFlight.get(), current));
+          }
+          Thread.sleep(delay);
+          if (throttleStatus != 0 && !throttled) {
+            throttled = true;
+            throw new CiHttpException(throttleStatus, "Received " + throttleStatus);
+          }
+          return index;
+        } finally {
+          inFlight.decrementAndGet();
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.junit.Test;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ivan Li
+ */
+public class ReservoirPlannerTest {
+
+  @Test
+  public void shouldFetchAFixedNumberOfSuccessfulBuilds() {
+    BuildSeries builds = summaries(10000, 7);
+    ReservoirPlanner planner = new ReservoirPlanner(50, new Random(42));
+
+    BitSet plan = planner.plan(builds);
+
+    assertThat(planner.isFixedCost()).isTrue();
+    assertThat(plan.get(0)).isTrue();
+    assertThat(plan.get(9999)).isTrue();
+    int successful = 0;
+    for (int i = plan.nextSetBit(1); i >= 0 && i < 9999; i = plan.nextSetBit(i + 1)) {
+      assertThat(builds.isSuccessful(i)).isTrue();
+      successful++;
+    }
+    assertThat(successful).isEqualTo(50);
+    assertThat(planner.refine(builds, plan).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void shouldFetchEverySuccessfulBuildOfSmallLists() {
+    BitSet plan = new ReservoirPlanner(50, new Random(42)).plan(summaries(20, 2));
+
+    assertThat(plan.cardinality()).isEqualTo(11);
+  }
+
+  @Test
+  public void shouldSampleUniformly() {
+    BuildSeries builds = summaries(100, 0);
+    ReservoirPlanner planner = new ReservoirPlanner(10, new Random(42));
+    int[] hits = new int[builds.size()];
+    int runs = 5000;
+    for (int run = 0; run < runs; run++) {
+      BitSet plan = planner.plan(builds);
+      // The ends are always fetched, only the reservoir is random
+      for (int i = plan.nextSetBit(1); i >= 0 && i < builds.size() - 1; i = plan.nextSetBit(i + 1)) {
+        hits[i]++;
+      }
+    }
+    // Each build should be drawn in 10% of the runs, 500 times, with a standard deviation of about 21
+    for (int i = 1; i < builds.size() - 1; i++) {
+      assertThat(hits[i]).isGreaterThan(400).isLessThan(600);
+    }
+  }
+
+  @Test
+  public void shouldPlanNothingForEmptyLists() {
+    assertThat(new ReservoirPlanner(10).plan(new BuildSeries()).isEmpty()).isTrue();
+  }
+
+  /**
+   * @param failureEvery every n-th build failed, none when 0
+   */
+  private static BuildSeries summaries(int count, int failureEvery) {
+    BuildSeries builds = new BuildSeries();
+    for (int i = 0; i < count; i++) {
+      boolean successful = failureEvery == 0 || i % failureEvery != 0;
+      builds.add(String.valueOf(i + 1), 0, successful ? "SUCCESS" : "FAILURE", successful, 0);
+    }
+    return builds;
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ivan Li
+ */
+public class ResponseCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void shouldRoundTripResponses() throws Exception {
+    File file = new File(temp.getRoot(), "cache/responses.bin");
+    ResponseCache cache = new ResponseCache(file, ResponseCache.MAX_SIZE);
+    cache.put("http://teamcity/builds/number:1", "\"v1\"", null, builds(new Build("1", 1000L, "SUCCESS", true, 300)));
+    BuildSeries second = builds(new Build("2", 2000L, null, false, 100));
+    cache.put("http://teamcity/builds/number:2", null, "Sun, 24 Nov 2013 05:35:20 GMT", second);
+    cache.save();
+
+    ResponseCache read = new ResponseCache(file, ResponseCache.MAX_SIZE);
+    ResponseCache.Entry first = read.get("http://teamcity/builds/number:1");
+    assertThat(first.getEtag()).isEqualTo("\"v1\"");
+    assertThat(first.getLastModified()).isEmpty();
+    assertThat(first.getBuilds().getNumber(0)).isEqualTo("1");
+    assertThat(first.getBuilds().getResult(0)).isEqualTo("SUCCESS");
+    assertThat(first.getBuilds().getDuration(0)).isEqualTo(300);
+    ResponseCache.Entry secondEntry = read.get("http://teamcity/builds/number:2");
+    assertThat(secondEntry.getLastModified()).isEqualTo("Sun, 24 Nov 2013 05:35:20 GMT");
+    assertThat(secondEntry.getBuilds().getResult(0)).isNull();
+    assertThat(secondEntry.getBuilds().isSuccessful(0)).isFalse();
+  }
+
+  @Test
+  public void shouldSaveConcurrentlyFromSeveralAnalyses() throws Exception {
+    final File file = new File(temp.getRoot(), "cache/responses.bin");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> saves = new ArrayList<Future<?>>();
+      for (int i = 0; i < 20; i++) {
+        final String url = "http://teamcity/builds/number:" + i;
+        saves.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            // A cache per analysis, as in separate JVMs
+            ResponseCache cache = new ResponseCache(file, ResponseCache.MAX_SIZE);
+            cache.put(url, "\"v1\"", null, builds(new Build("1", 1000L, "SUCCESS", true, 300)));
+            cache.save();
+            return null;
+          }
+        }));
+      }
+      for (Future<?> save : saves) {
+        save.get(10, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(file.getParentFile().list()).containsOnly("responses.bin", "responses.bin.lock");
+    ResponseCache read = new ResponseCache(file, ResponseCache.MAX_SIZE);
+    for (int i = 0; i < 20; i++) {
+      assertThat(read.get("http://teamcity/builds/number:" + i)).isNotNull();
+    }
+  }
+
+  @Test
+  public void shouldOnlyKeepResponsesWithValidators() {
+    ResponseCache cache = new ResponseCache(new File(temp.getRoot(), "responses.bin"), ResponseCache.MAX_SIZE);
+    cache.put("http://teamcity/builds/number:1", null, null, builds(new Build("1", 1000L, "SUCCESS", true, 300)));
+
+    assertThat(cache.get("http://teamcity/builds/number:1")).isNull();
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedResponses() {
+    // 12 bytes per entry: one-character URL and ETag, empty Last-Modified, their lengths and the number of builds
+    ResponseCache cache = new ResponseCache(new File(temp.getRoot(), "responses.bin"), 24);
+    cache.put("a", "1", null, new BuildSeries());
+    cache.put("b", "2", null, new BuildSeries());
+    cache.get("a");
+    cache.put("c", "3", null, new BuildSeries());
+
+    assertThat(cache.get("a")).isNotNull();
+    assertThat(cache.get("b")).isNull();
+    assertThat(cache.get("c")).isNotNull();
+  }
+
+  @Test
+  public void shouldBoundTheCacheBySize() throws Exception {
+    File file = new File(temp.getRoot(), "responses.bin");
+    ResponseCache cache = new ResponseCache(file, 200);
+    BuildSeries many = new BuildSeries();
+    for (int i = 0; i < 20; i++) {
+      many.add(new Build(String.valueOf(i), 1000L, "SUCCESS", true, 300));
+    }
+    cache.put("large", "1", null, many);
+    cache.put("a", "2", null, builds(new Build("1", 1000L, "SUCCESS", true, 300)));
+    cache.save();
+
+    assertThat(cache.get("large")).isNull();
+    assertThat(cache.get("a")).isNotNull();
+    assertThat(file.length()).isLessThanOrEqualTo(200);
+  }
+
+  @Test
+  public void shouldGiveCopiesOfCachedBuilds() {
+    ResponseCache cache = new ResponseCache(new File(temp.getRoot(), "responses.bin"), ResponseCache.MAX_SIZE);
+    BuildSeries builds = builds(new Build("1", 1000L, "SUCCESS", true, 300));
+    cache.put("a", "1", null, builds);
+    builds.retainSince(Long.MAX_VALUE);
+    cache.get("a").getBuilds().retainSince(Long.MAX_VALUE);
+
+    assertThat(cache.get("a").getBuilds()).hasSize(1);
+  }
+
+  @Test
+  public void shouldIgnoreUnreadableCache() throws Exception {
+    File file = temp.newFile("responses.bin");
+    FileUtils.writeStringToFile(file, "not a cache");
+
+    assertThat(new ResponseCache(file, ResponseCache.MAX_SIZE).get("a")).isNull();
+  }
+
+  @Test
+  public void shouldBeSharedPerDirectory() {
+    assertThat(ResponseCache.forDirectory(temp.getRoot())).isSameAs(ResponseCache.forDirectory(temp.getRoot()));
+  }
+
+  private static BuildSeries builds(Build... builds) {
+    return BuildSeries.of(Arrays.asList(builds));
+  }
+}
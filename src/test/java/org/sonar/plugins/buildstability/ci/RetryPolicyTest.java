@@ -0,0 +1,48 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ivan Li
+ */
+public class RetryPolicyTest {
+
+  @Test
+  public void shouldBackOffExponentiallyWithJitter() {
+    RetryPolicy policy = new RetryPolicy(5, 100, 1000);
+    for (int i = 0; i < 100; i++) {
+      assertThat(policy.getDelay(1, -1)).isGreaterThanOrEqualTo(0).isLessThan(100);
+      assertThat(policy.getDelay(3, -1)).isGreaterThanOrEqualTo(0).isLessThan(400);
+      assertThat(policy.getDelay(10, -1)).isGreaterThanOrEqualTo(0).isLessThan(1000);
+    }
+  }
+
+  @Test
+  public void shouldHonourRetryAfterBeyondCap() {
+    RetryPolicy policy = new RetryPolicy(5, 100, 1000);
+    assertThat(policy.getDelay(1, 700)).isEqualTo(700);
+    assertThat(policy.getDelay(1, 0)).isEqualTo(0);
+    assertThat(policy.getDelay(1, 60000)).isEqualTo(60000);
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+import org.sonar.plugins.buildstability.ci.teamcity.TeamCityServer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Ivan Li
+ */
+public class SharedBuildCacheTest {
+
+  private static final Date SINCE = new Date(1000L);
+
+  private SharedBuildCache cache;
+  private BuildHistoryCache history;
+
+  @Before
+  public void setUp() throws Exception {
+    cache = new SharedBuildCache(2, 1, TimeUnit.HOURS);
+    history = mock(BuildHistoryCache.class);
+    when(history.getBuildsSince(any(CiConnector.class), any(Date.class))).thenReturn(builds());
+  }
+
+  @Test
+  public void shouldFetchOncePerBuildType() throws Exception {
+    assertThat(cache.getBuildsSince(connector("A"), SINCE, history)).hasSize(2);
+    assertThat(cache.getBuildsSince(connector("A"), new Date(SINCE.getTime() + 5000), history)).hasSize(1);
+    cache.getBuildsSince(connector("B"), SINCE, history);
+
+    verify(history, times(2)).getBuildsSince(any(CiConnector.class), any(Date.class));
+  }
+
+  @Test
+  public void shouldNotShareBuildsBetweenCredentials() throws Exception {
+    CiConnector other = connector("A");
+    other.getServer().setUsername("other");
+    cache.getBuildsSince(connector("A"), SINCE, history);
+    cache.getBuildsSince(other, SINCE, history);
+
+    verify(history, times(2)).getBuildsSince(any(CiConnector.class), any(Date.class));
+  }
+
+  @Test
+  public void shouldNotShareBuildsBetweenFetchModes() throws Exception {
+    CiConnector sampled = connector("A");
+    when(sampled.getFetchMode()).thenReturn(new ReservoirPlanner(100).getSampling());
+    cache.getBuildsSince(connector("A"), SINCE, history);
+    cache.getBuildsSince(sampled, SINCE, history);
+    cache.getBuildsSince(sampled, SINCE, history);
+
+    verify(history, times(2)).getBuildsSince(any(CiConnector.class), any(Date.class));
+  }
+
+  @Test
+  public void shouldWaitForFetchInProgress() throws Exception {
+    final CountDownLatch fetching = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    when(history.getBuildsSince(any(CiConnector.class), any(Date.class))).thenAnswer(new Answer<BuildSeries>() {
+      @Override
+      public BuildSeries answer(InvocationOnMock invocation) throws Exception {
+        fetching.countDown();
+        release.await();
+        return builds();
+      }
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<BuildSeries> first = executor.submit(fetch("A"));
+      fetching.await(5, TimeUnit.SECONDS);
+      Future<BuildSeries> second = executor.submit(fetch("A"));
+      Thread.sleep(50);
+      release.countDown();
+
+      assertThat(first.get(5, TimeUnit.SECONDS)).hasSize(2);
+      assertThat(second.get(5, TimeUnit.SECONDS)).hasSize(2);
+    } finally {
+      executor.shutdownNow();
+    }
+    verify(history, times(1)).getBuildsSince(any(CiConnector.class), any(Date.class));
+  }
+
+  @Test
+  public void shouldGiveEachCallerItsOwnCopy() throws Exception {
+    BuildSeries first = cache.getBuildsSince(connector("A"), SINCE, history);
+    first.retainSince(Long.MAX_VALUE);
+
+    assertThat(cache.getBuildsSince(connector("A"), SINCE, history)).hasSize(2);
+  }
+
+  @Test
+  public void shouldNotKeepFailedFetches() throws Exception {
+    when(history.getBuildsSince(any(CiConnector.class), any(Date.class))).thenThrow(new IOException("down")).thenReturn(builds());
+    try {
+      cache.getBuildsSince(connector("A"), SINCE, history);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("down");
+    }
+
+    assertThat(cache.getBuildsSince(connector("A"), SINCE, history)).hasSize(2);
+  }
+
+  @Test
+  public void shouldNotKeepIncompleteFetches() throws Exception {
+    BuildSeries partial = builds();
+    partial.setCoverage(0.5);
+    when(history.getBuildsSince(any(CiConnector.class), any(Date.class))).thenReturn(partial);
+
+    assertThat(cache.getBuildsSince(connector("A"), SINCE, history).getCoverage()).isEqualTo(0.5);
+    cache.getBuildsSince(connector("A"), SINCE, history);
+
+    verify(history, times(2)).getBuildsSince(any(CiConnector.class), any(Date.class));
+  }
+
+  @Test
+  public void shouldRefetchForAnEarlierDateOfTheSameDay() throws Exception {
+    cache.getBuildsSince(connector("A"), new Date(SINCE.getTime() + 5000), history);
+    cache.getBuildsSince(connector("A"), SINCE, history);
+
+    verify(history, times(2)).getBuildsSince(any(CiConnector.class), any(Date.class));
+  }
+
+  @Test
+  public void shouldRefetchOnceExpired() throws Exception {
+    cache = new SharedBuildCache(2, 200, TimeUnit.MILLISECONDS);
+    cache.getBuildsSince(connector("A"), SINCE, history);
+    Thread.sleep(250);
+    cache.getBuildsSince(connector("A"), SINCE, history);
+    cache.getBuildsSince(connector("A"), SINCE, history);
+
+    verify(history, times(2)).getBuildsSince(any(CiConnector.class), any(Date.class));
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedBuildTypes() throws Exception {
+    cache.getBuildsSince(connector("A"), SINCE, history);
+    cache.getBuildsSince(connector("B"), SINCE, history);
+    cache.getBuildsSince(connector("C"), SINCE, history);
+    cache.getBuildsSince(connector("A"), SINCE, history);
+
+    verify(history, times(4)).getBuildsSince(any(CiConnector.class), any(Date.class));
+  }
+
+  private Callable<BuildSeries> fetch(final String key) {
+    return new Callable<BuildSeries>() {
+      @Override
+      public BuildSeries call() throws Exception {
+        return cache.getBuildsSince(connector(key), SINCE, history);
+      }
+    };
+  }
+
+  private static CiConnector connector(String key) {
+    TeamCityServer server = new TeamCityServer();
+    server.setHost("http://teamcity");
+    server.setKey(key);
+    CiConnector connector = mock(CiConnector.class);
+    when(connector.getServer()).thenReturn(server);
+    when(connector.getFetchMode()).thenReturn("all");
+    return connector;
+  }
+
+  private static BuildSeries builds() {
+    return BuildSeries.of(Arrays.asList(
+      new Build("1", 2000L, "SUCCESS", true, 100),
+      new Build("2", 8000L, "FAILURE", false, 100)));
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.junit.Rule;
+import org.junit.Test;
+import org.sonar.plugins.buildstability.ci.teamcity.TeamCityServer;
+import org.sonar.plugins.buildstability.util.MockHttpServerInterceptor;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ivan Li
+ */
+public class SharedHttpClientTest {
+
+  private static final String BUILD = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+    + "<build number=\"1\" status=\"SUCCESS\"><startDate>20131124T053500+0000</startDate>"
+    + "<finishDate>20131124T053520+0000</finishDate></build>";
+
+  @Rule
+  public MockHttpServerInterceptor httpServer = new MockHttpServerInterceptor();
+
+  @Test
+  public void shouldBeSharedByConnectors() {
+    assertThat(SharedHttpClient.get()).isSameAs(SharedHttpClient.get());
+    assertThat(CiFactory.create("TeamCity:http://teamcity/viewType.html?buildTypeId=A", "", "", false).getClient())
+      .isSameAs(CiFactory.create("TeamCity:http://teamcity/viewType.html?buildTypeId=B", "", "", false).getClient());
+  }
+
+  @Test
+  public void shouldKeepConnectionAliveAcrossConnectors() throws Exception {
+    DefaultHttpClient client = SharedHttpClient.create();
+    httpServer.addMockResponseData(BUILD);
+    httpServer.addMockResponseData(BUILD);
+
+    assertThat(new CiConnector(server(), client).getBuild("1").isSuccessful()).isTrue();
+    assertThat(new CiConnector(server(), client).getBuild("1").isSuccessful()).isTrue();
+
+    PoolingClientConnectionManager connectionManager = (PoolingClientConnectionManager) client.getConnectionManager();
+    assertThat(connectionManager.getTotalStats().getLeased()).isEqualTo(0);
+    assertThat(connectionManager.getTotalStats().getAvailable()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldServeSharedPoolRequestsFromDaemonThreads() throws Exception {
+    assertThat(SharedHttpClient.getExecutor()).isSameAs(SharedHttpClient.getExecutor());
+    httpServer.addMockResponseData(BUILD);
+    CiConnector connector = new CiConnector(server());
+    connector.setTransport(new SharedPoolHttpTransport(SharedHttpClient.get(), SharedHttpClient.getExecutor()));
+    assertThat(connector.getBuild("1").isSuccessful()).isTrue();
+
+    int workers = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("build-stability-http-worker")) {
+        assertThat(thread.isDaemon()).isTrue();
+        workers++;
+      }
+    }
+    assertThat(workers).isGreaterThan(0).isLessThanOrEqualTo(SharedHttpClient.WORKER_THREADS);
+  }
+
+  private TeamCityServer server() {
+    TeamCityServer server = new TeamCityServer();
+    server.setHost("http://localhost:" + httpServer.getPort());
+    server.setKey("Key");
+    return server;
+  }
+}
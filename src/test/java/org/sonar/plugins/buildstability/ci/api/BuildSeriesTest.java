@@ -0,0 +1,112 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.api;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ivan Li
+ */
+public class BuildSeriesTest {
+
+  @Test
+  public void shouldStoreBuildsInColumns() {
+    BuildSeries series = new BuildSeries(1);
+    series.add("1", 1000L, "SUCCESS", true, 300);
+    series.add("2", 2000L, "FAILURE", false, 200.4);
+    series.add("3", 3000L, null, false, 0);
+
+    assertThat(series).hasSize(3);
+    assertThat(series.getNumber(1)).isEqualTo("2");
+    assertThat(series.getTimestamp(1)).isEqualTo(2000L);
+    assertThat(series.getDuration(1)).isEqualTo(200);
+    assertThat(series.getResult(1)).isEqualTo("FAILURE");
+    assertThat(series.isSuccessful(0)).isTrue();
+    assertThat(series.isSuccessful(1)).isFalse();
+    assertThat(series.getResult(2)).isNull();
+
+    Build build = series.get(0);
+    assertThat(build.getNumberAsString()).isEqualTo("1");
+    assertThat(build.getDuration()).isEqualTo(300.0);
+    assertThat(build.isSuccessful()).isTrue();
+  }
+
+  @Test
+  public void shouldSortByTimestampKeepingTies() {
+    BuildSeries series = BuildSeries.of(Arrays.asList(
+      new Build("c", 30L, "SUCCESS", true, 3),
+      new Build("a", 10L, "FAILURE", false, 1),
+      new Build("d", 30L, "FAILURE", false, 4),
+      new Build("b", 20L, "SUCCESS", true, 2)));
+
+    series.sortByTimestamp();
+
+    assertThat(series.getNumber(0)).isEqualTo("a");
+    assertThat(series.getNumber(1)).isEqualTo("b");
+    assertThat(series.getNumber(2)).isEqualTo("c");
+    assertThat(series.getNumber(3)).isEqualTo("d");
+    assertThat(series.isSuccessful(0)).isFalse();
+    assertThat(series.isSuccessful(2)).isTrue();
+    assertThat(series.getDuration(3)).isEqualTo(4);
+  }
+
+  @Test
+  public void shouldOrderByNumberKeepingTies() {
+    BuildSeries series = BuildSeries.of(Arrays.asList(
+      new Build("3", 30L, "SUCCESS", true, 3),
+      new Build("1", 10L, "FAILURE", false, 1),
+      new Build("3", 40L, "FAILURE", false, 4),
+      new Build("2", 20L, "SUCCESS", true, 2)));
+
+    assertThat(series.orderByNumber()).isEqualTo(new int[] {1, 3, 0, 2});
+    assertThat(series.getNumber(0)).isEqualTo("3");
+  }
+
+  @Test
+  public void shouldRetainRecentBuilds() {
+    BuildSeries series = BuildSeries.of(Arrays.asList(
+      new Build("1", 10L, "FAILURE", false, 1),
+      new Build("2", 20L, "SUCCESS", true, 2),
+      new Build("3", 5L, "SUCCESS", true, 3)));
+
+    series.retainSince(10L);
+
+    assertThat(series).hasSize(2);
+    assertThat(series.getNumber(0)).isEqualTo("1");
+    assertThat(series.isSuccessful(0)).isFalse();
+    assertThat(series.getNumber(1)).isEqualTo("2");
+    assertThat(series.isSuccessful(1)).isTrue();
+  }
+
+  @Test
+  public void shouldReplaceBuild() {
+    BuildSeries series = new BuildSeries();
+    series.add("1", 0L, null, false, 0);
+
+    series.set(0, new Build("1", 10L, "SUCCESS", true, 5));
+
+    assertThat(series.getTimestamp(0)).isEqualTo(10L);
+    assertThat(series.isSuccessful(0)).isTrue();
+  }
+}
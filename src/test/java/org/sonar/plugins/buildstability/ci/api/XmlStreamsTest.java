@@ -0,0 +1,83 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.api;
+
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ivan Li
+ */
+public class XmlStreamsTest {
+
+  @Test
+  public void shouldSniffEncodingFromProlog() throws Exception {
+    assertThat(XmlStreams.sniffEncoding(stream("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><foo/>", "ISO-8859-1"))).isEqualTo("ISO-8859-1");
+    assertThat(XmlStreams.sniffEncoding(stream("<?xml version='1.0' encoding='UTF-8' standalone='yes'?><foo/>", "UTF-8"))).isEqualTo("UTF-8");
+  }
+
+  @Test
+  public void shouldNotFindEncodingWithoutDeclaration() throws Exception {
+    assertThat(XmlStreams.sniffEncoding(stream("<?xml version=\"1.0\" standalone=\"yes\"?><foo/>", "UTF-8"))).isNull();
+    assertThat(XmlStreams.sniffEncoding(stream("<foo encoding=\"UTF-8\"/>", "UTF-8"))).isNull();
+  }
+
+  @Test
+  public void shouldNotConsumeSniffedBytes() throws Exception {
+    InputStream in = stream("<?xml version=\"1.0\" encoding=\"UTF-8\"?><foo/>", "UTF-8");
+    XmlStreams.sniffEncoding(in);
+    assertThat((char) in.read()).isEqualTo('<');
+  }
+
+  @Test
+  public void shouldUseDefaultEncodingWithoutDeclaration() throws Exception {
+    XMLStreamReader reader = XmlStreams.createReader(stream("<?xml version=\"1.0\"?><foo>\u00e9\u00e0\u00e7</foo>", "ISO-8859-1"), "ISO-8859-1");
+    assertThat(reader.getLocalName()).isEqualTo("foo");
+    assertThat(reader.getElementText()).isEqualTo("\u00e9\u00e0\u00e7");
+  }
+
+  @Test
+  public void shouldPreferDeclaredEncoding() throws Exception {
+    XMLStreamReader reader = XmlStreams.createReader(stream("<?xml version=\"1.0\" encoding=\"UTF-8\"?><foo>\u00e9\u00e0\u00e7</foo>", "UTF-8"), "ISO-8859-1");
+    assertThat(reader.getElementText()).isEqualTo("\u00e9\u00e0\u00e7");
+  }
+
+  @Test
+  public void shouldSkipElementWithChildren() throws Exception {
+    XMLStreamReader reader = XmlStreams.createReader(stream("<a><b><c>text</c><d/></b><e/></a>", "UTF-8"), null);
+    reader.nextTag();
+    assertThat(reader.getLocalName()).isEqualTo("b");
+    XmlStreams.skipElement(reader);
+    assertThat(reader.getLocalName()).isEqualTo("b");
+    reader.nextTag();
+    assertThat(reader.getLocalName()).isEqualTo("e");
+  }
+
+  private static InputStream stream(String xml, String encoding) throws Exception {
+    return new BufferedInputStream(new ByteArrayInputStream(xml.getBytes(encoding)));
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.jenkins;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.dom4j.Document;
+import org.dom4j.io.SAXReader;
+import org.junit.Test;
+import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.JsonStreams;
+import org.sonar.plugins.buildstability.ci.api.XmlStreams;
+
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ivan Li
+ */
+public class JenkinsBuildUnmarshallerTest {
+
+  private final JenkinsBuildUnmarshaller unmarshaller = new JenkinsBuildUnmarshaller();
+
+  @Test
+  public void testStreamResult() throws Exception {
+    Build b = unmarshaller.toModel(stream("result.xml"));
+
+    assertThat(b.getNumberAsInteger()).isEqualTo(6);
+    assertThat(b.isSuccessful()).isTrue();
+    assertThat(b.getResult()).isEqualTo("SUCCESS");
+    assertThat(b.getTimestamp()).isEqualTo(1385271300000L);
+    assertThat(b.getDuration()).isEqualTo(20000.0);
+  }
+
+  @Test
+  public void testStreamRangeLeavesOutRunningBuilds() throws Exception {
+    XMLStreamReader reader = stream("builds-range-0.xml");
+    List<Build> builds = unmarshaller.toManyModel(reader);
+
+    assertThat(builds).hasSize(1);
+    assertThat(builds.get(0).getNumberAsString()).isEqualTo("8");
+    assertThat(builds.get(0).getDuration()).isEqualTo(90000.0);
+    assertThat(reader.getLocalName()).isEqualTo("freeStyleProject");
+  }
+
+  @Test
+  public void testStreamRangeLeavesOutAbortedBuilds() throws Exception {
+    List<Build> builds = unmarshaller.toManyModel(stream("builds-range-2.xml"));
+
+    assertThat(builds).hasSize(1);
+    assertThat(builds.get(0).getNumberAsString()).isEqualTo("4");
+  }
+
+  @Test
+  public void testStreamRangeWithFailures() throws Exception {
+    List<Build> builds = unmarshaller.toManyModel(stream("builds-range-1.xml"));
+
+    assertThat(builds).hasSize(2);
+    assertThat(builds.get(0).isSuccessful()).isFalse();
+    assertThat(builds.get(0).getResult()).isEqualTo("FAILURE");
+    assertThat(builds.get(1).isSuccessful()).isTrue();
+  }
+
+  @Test
+  public void testStreamLastBuildLeavesOutAbortedBuilds() throws Exception {
+    XMLStreamReader reader = stream("builds-range-2.xml");
+    Build last = unmarshaller.toModel(reader);
+
+    assertThat(last.getNumberAsString()).isEqualTo("4");
+    assertThat(last.getTimestamp()).isEqualTo(1385208000000L);
+    assertThat(reader.getLocalName()).isEqualTo("freeStyleProject");
+    assertThat(reader.isEndElement()).isTrue();
+  }
+
+  @Test
+  public void testLastBuildLeavesOutRunningBuilds() throws Exception {
+    assertThat(unmarshaller.toModel(read("builds-range-0.xml").getRootElement()).getNumberAsString()).isEqualTo("8");
+    assertThat(unmarshaller.toModel(JsonStreams.createParser(getClass().getResourceAsStream("builds.json"))).getNumberAsString())
+      .isEqualTo("8");
+  }
+
+  @Test
+  public void testNoLastBuildWhenAllAreLeftOut() throws Exception {
+    String xml = "<freeStyleProject><allBuild><building>true</building><number>9</number></allBuild></freeStyleProject>";
+    XMLStreamReader reader = XmlStreams.createReader(new ByteArrayInputStream(xml.getBytes("UTF-8")), null);
+
+    assertThat(unmarshaller.toModel(reader)).isNull();
+  }
+
+  @Test
+  public void testJsonBulkResults() throws Exception {
+    JsonParser parser = JsonStreams.createParser(getClass().getResourceAsStream("builds.json"));
+    List<Build> builds = unmarshaller.toManyModel(parser);
+
+    assertThat(builds).hasSize(2);
+    assertThat(builds.get(0).getNumberAsString()).isEqualTo("8");
+    assertThat(builds.get(0).getTimestamp()).isEqualTo(1385374200000L);
+    assertThat(builds.get(1).isSuccessful()).isFalse();
+    assertThat(builds.get(1).getDuration()).isEqualTo(45000.0);
+    assertThat(parser.getCurrentToken()).isEqualTo(JsonToken.END_OBJECT);
+  }
+
+  @Test
+  public void testUnmarshallJobWithoutTreeAsSummaries() throws Exception {
+    List<Build> builds = unmarshaller.toManyModel(read("lastbuild.xml").getRootElement());
+
+    assertThat(builds).hasSize(10);
+    assertThat(builds.get(0).getNumberAsString()).isEqualTo("419");
+    assertThat(builds.get(0).getTimestamp()).isEqualTo(0);
+  }
+
+  @Test
+  public void testUnmarshallResult() throws Exception {
+    Build b = unmarshaller.toModel(read("result.xml").getRootElement());
+
+    assertThat(b.getNumberAsInteger()).isEqualTo(6);
+    assertThat(b.isSuccessful()).isTrue();
+    assertThat(b.getDuration()).isEqualTo(20000.0);
+  }
+
+  private XMLStreamReader stream(String resource) throws Exception {
+    return XmlStreams.createReader(getClass().getResourceAsStream(resource), null);
+  }
+
+  private Document read(String resource) throws Exception {
+    SAXReader reader = new SAXReader();
+    reader.setEncoding("UTF-8");
+    return reader.read(getClass().getResourceAsStream(resource));
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.jenkins;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URLDecoder;
+import java.util.Date;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ivan Li
+ */
+public class JenkinsServerTest {
+
+  private JenkinsServer server;
+
+  @Before
+  public void setUp() {
+    server = new JenkinsServer();
+    server.setHost("http://host:8080");
+    server.setKey("Install/");
+  }
+
+  @Test
+  public void testGetBuildURL() throws Exception {
+    assertThat(decode(server.getBuildUrl("6")))
+      .isEqualTo("http://host:8080/job/Install/6/api/xml?tree=number,result,timestamp,duration,building");
+  }
+
+  @Test
+  public void testGetLastBuildURL() throws Exception {
+    assertThat(decode(server.getLastBuildUrl()))
+      .isEqualTo("http://host:8080/job/Install/api/xml?tree=allBuilds[number,result,timestamp,duration,building]{0,10}");
+  }
+
+  @Test
+  public void testGetBuildRangeURL() throws Exception {
+    assertThat(decode(server.getBuildRangeUrl(500, 1000)))
+      .isEqualTo("http://host:8080/job/Install/api/xml?tree=allBuilds[number,result,timestamp,duration,building]{500,1000}");
+    assertThat(server.getBuildRangeUrl(0, 500)).doesNotContain("[").doesNotContain("{");
+  }
+
+  @Test
+  public void testGetBuildURLSinceListsEveryBuild() throws Exception {
+    assertThat(decode(server.getBuildUrlSince(new Date())))
+      .isEqualTo("http://host:8080/job/Install/api/xml?tree=allBuilds[number,result,timestamp,duration,building]");
+  }
+
+  @Test
+  public void testJobInFolder() throws Exception {
+    server.setKey("Team/job/Install");
+
+    assertThat(server.getBuildUrl("6")).startsWith("http://host:8080/job/Team/job/Install/6/api/xml");
+  }
+
+  @Test
+  public void testSendApiTokenWithBasicAuthentication() {
+    server.setUsername("user");
+    server.setToken("0123abcd");
+    HttpGet request = new HttpGet(server.getBuildUrl("6"));
+
+    server.prepareRequest(request);
+
+    // user:0123abcd
+    assertThat(request.getFirstHeader("Authorization").getValue()).isEqualTo("Basic dXNlcjowMTIzYWJjZA==");
+  }
+
+  @Test
+  public void testNoAuthorizationHeaderWithoutToken() {
+    server.setUsername("user");
+    server.setPassword("pwd");
+    HttpGet request = new HttpGet(server.getBuildUrl("6"));
+
+    server.prepareRequest(request);
+
+    assertThat(request.getFirstHeader("Authorization")).isNull();
+  }
+
+  private static String decode(String url) throws Exception {
+    return URLDecoder.decode(url, "UTF-8");
+  }
+}
@@ -19,13 +19,26 @@
  */
 package org.sonar.plugins.buildstability.ci.teamcity;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import org.dom4j.Document;
 import org.dom4j.io.SAXReader;
 import org.junit.Before;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sonar.plugins.buildstability.ci.api.Build;
+import org.sonar.plugins.buildstability.ci.api.BuildPage;
+import org.sonar.plugins.buildstability.ci.api.BuildSeries;
+import org.sonar.plugins.buildstability.ci.api.JsonStreams;
+import org.sonar.plugins.buildstability.ci.api.XmlStreams;
 
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -33,6 +46,10 @@ import static org.fest.assertions.Assertions.assertThat;
  * @author Alexei Guevara <alguevara@kijiji.ca>
  */
 public class TeamCityBuildUnmarshallerTest {
+  private static final Logger LOG = LoggerFactory.getLogger(TeamCityBuildUnmarshallerTest.class);
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int LARGE_HISTORY = 5000;
+
   private TeamCityBuildUnmarshaller unmarshaller;
 
   @Before
@@ -52,4 +69,191 @@ public class TeamCityBuildUnmarshallerTest {
     assertThat(b.getTimestamp()).isGreaterThan(0);
     assertThat(b.getDuration()).isGreaterThan(0);
   }
+
+  @Test
+  public void testUnmarshallBulkResults() throws Exception {
+    List<Build> builds = unmarshaller.toManyModel(read("builds.xml").getRootElement());
+    assertThat(builds).hasSize(3);
+    assertThat(builds.get(0).getNumberAsString()).isEqualTo("8");
+    assertThat(builds.get(0).isSuccessful()).isTrue();
+    assertThat(builds.get(0).getDuration()).isEqualTo(90000.0);
+    assertThat(builds.get(1).isSuccessful()).isFalse();
+    assertThat(builds.get(1).getTimestamp()).isGreaterThan(0);
+  }
+
+  @Test
+  public void testUnmarshallSummaries() throws Exception {
+    List<Build> builds = unmarshaller.toManyModel(read("build-summaries.xml").getRootElement());
+    assertThat(builds).hasSize(2);
+    assertThat(builds.get(0).getNumberAsString()).isEqualTo("7");
+    assertThat(builds.get(0).getTimestamp()).isEqualTo(0);
+  }
+
+  @Test
+  public void testUnmarshallSummariesLikeStreams() throws Exception {
+    List<Build> dom = unmarshaller.toManyModel(read("build-summaries.xml").getRootElement());
+    List<Build> stax = unmarshaller.toManyModel(stream("build-summaries.xml"));
+    assertThat(dom).hasSize(stax.size());
+    for (int i = 0; i < stax.size(); i++) {
+      assertThat(dom.get(i).getNumberAsString()).isEqualTo(stax.get(i).getNumberAsString());
+      assertThat(dom.get(i).getResult()).isEqualTo(stax.get(i).getResult());
+      assertThat(dom.get(i).isSuccessful()).isEqualTo(stax.get(i).isSuccessful());
+    }
+    assertThat(dom.get(0).getResult()).isEqualTo("FAILURE");
+    assertThat(dom.get(1).isSuccessful()).isTrue();
+  }
+
+  @Test
+  public void testStreamResult() throws Exception {
+    Build b = unmarshaller.toModel(stream("result.xml"));
+    assertThat(b.getNumberAsInteger()).isEqualTo(6);
+    assertThat(b.isSuccessful()).isTrue();
+    assertThat(b.getTimestamp()).isGreaterThan(0);
+    assertThat(b.getDuration()).isEqualTo(20000.0);
+  }
+
+  @Test
+  public void testStreamBulkResults() throws Exception {
+    XMLStreamReader reader = stream("builds.xml");
+    List<Build> builds = unmarshaller.toManyModel(reader);
+    assertThat(builds).hasSize(3);
+    assertThat(builds.get(0).getNumberAsString()).isEqualTo("8");
+    assertThat(builds.get(0).getDuration()).isEqualTo(90000.0);
+    assertThat(builds.get(1).isSuccessful()).isFalse();
+    assertThat(reader.getLocalName()).isEqualTo("builds");
+    assertThat(reader.isEndElement()).isTrue();
+  }
+
+  @Test
+  public void testStreamSummaries() throws Exception {
+    List<Build> builds = unmarshaller.toManyModel(stream("build-summaries.xml"));
+    assertThat(builds).hasSize(2);
+    assertThat(builds.get(1).getNumberAsString()).isEqualTo("6");
+    assertThat(builds.get(1).getTimestamp()).isEqualTo(0);
+  }
+
+  @Test
+  public void testStreamNextPage() throws Exception {
+    BuildPage page = unmarshaller.toManyModel(stream("builds-page.xml"));
+    assertThat(page).hasSize(2);
+    assertThat(page.getNextHref()).isEqualTo("/httpAuth/app/rest/buildTypes/id:bt1/builds?locator=sinceDate:20131124T000000%2B0000,count:2,start:2");
+    assertThat(unmarshaller.toManyModel(stream("builds.xml")).getNextHref()).isNull();
+  }
+
+  @Test
+  public void testJsonResult() throws Exception {
+    JsonParser parser = json(getClass().getResourceAsStream("result.json"));
+    Build b = unmarshaller.toModel(parser);
+    assertThat(b.getNumberAsInteger()).isEqualTo(6);
+    assertThat(b.isSuccessful()).isTrue();
+    assertThat(b.getDuration()).isEqualTo(20000.0);
+    assertThat(parser.getCurrentToken()).isEqualTo(JsonToken.END_OBJECT);
+    assertThat(parser.nextToken()).isNull();
+  }
+
+  @Test
+  public void testJsonBulkResults() throws Exception {
+    JsonParser parser = json(getClass().getResourceAsStream("builds.json"));
+    List<Build> builds = unmarshaller.toManyModel(parser);
+    assertThat(builds).hasSize(3);
+    assertThat(builds.get(0).getNumberAsString()).isEqualTo("8");
+    assertThat(builds.get(0).getDuration()).isEqualTo(90000.0);
+    assertThat(builds.get(1).isSuccessful()).isFalse();
+    assertThat(builds.get(1).getTimestamp()).isEqualTo(unmarshaller.toManyModel(stream("builds.xml")).get(1).getTimestamp());
+    assertThat(parser.getCurrentToken()).isEqualTo(JsonToken.END_OBJECT);
+  }
+
+  @Test
+  public void testJsonSummaries() throws Exception {
+    List<Build> builds = unmarshaller.toManyModel(json(getClass().getResourceAsStream("build-summaries.json")));
+    assertThat(builds).hasSize(2);
+    assertThat(builds.get(1).getNumberAsString()).isEqualTo("6");
+    assertThat(builds.get(1).getTimestamp()).isEqualTo(0);
+  }
+
+  @Test
+  public void testJsonNextPage() throws Exception {
+    BuildPage page = unmarshaller.toManyModel(json(getClass().getResourceAsStream("builds-page.json")));
+    assertThat(page).hasSize(2);
+    assertThat(page.getNextHref()).isEqualTo("/httpAuth/app/rest/buildTypes/id:bt1/builds?locator=sinceDate:20131124T000000%2B0000,count:2,start:2");
+    assertThat(unmarshaller.toManyModel(json(getClass().getResourceAsStream("builds.json"))).getNextHref()).isNull();
+  }
+
+  /**
+   * Compares bytes transferred and parse time of the same large history in both formats.
+   */
+  @Test
+  public void testJsonIsSmallerThanXmlForLargeHistory() throws Exception {
+    byte[] xml = largeXmlHistory().getBytes(UTF_8);
+    byte[] json = largeJsonHistory().getBytes(UTF_8);
+
+    BuildSeries fromXml = null;
+    BuildSeries fromJson = null;
+    long xmlTime = Long.MAX_VALUE;
+    long jsonTime = Long.MAX_VALUE;
+    for (int run = 0; run < 5; run++) {
+      long start = System.nanoTime();
+      fromXml = unmarshaller.toManyModel(XmlStreams.createReader(new ByteArrayInputStream(xml), null));
+      xmlTime = Math.min(xmlTime, System.nanoTime() - start);
+      start = System.nanoTime();
+      fromJson = unmarshaller.toManyModel(json(new ByteArrayInputStream(json)));
+      jsonTime = Math.min(jsonTime, System.nanoTime() - start);
+    }
+    LOG.info("{} builds: XML {} bytes parsed in {} ms, JSON {} bytes parsed in {} ms", new Object[] {LARGE_HISTORY,
+      xml.length, xmlTime / 1000000, json.length, jsonTime / 1000000});
+
+    assertThat(json.length).isLessThan(xml.length);
+    assertThat(fromJson).hasSize(LARGE_HISTORY);
+    for (int i = 0; i < LARGE_HISTORY; i++) {
+      assertThat(fromJson.getNumber(i)).isEqualTo(fromXml.getNumber(i));
+      assertThat(fromJson.getTimestamp(i)).isEqualTo(fromXml.getTimestamp(i));
+      assertThat(fromJson.getDuration(i)).isEqualTo(fromXml.getDuration(i));
+      assertThat(fromJson.isSuccessful(i)).isEqualTo(fromXml.isSuccessful(i));
+    }
+  }
+
+  private static String largeXmlHistory() {
+    StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+      .append("<builds count=\"").append(LARGE_HISTORY).append("\">");
+    for (int i = 0; i < LARGE_HISTORY; i++) {
+      sb.append("<build id=\"").append(i).append("\" number=\"").append(i).append("\" status=\"").append(status(i))
+        .append("\" buildTypeId=\"SonarBuildStability_Install\" href=\"/httpAuth/app/rest/builds/id:").append(i)
+        .append("\"><startDate>").append(date(i, 0)).append("</startDate><finishDate>").append(date(i, 30))
+        .append("</finishDate></build>");
+    }
+    return sb.append("</builds>").toString();
+  }
+
+  private static String largeJsonHistory() {
+    StringBuilder sb = new StringBuilder("{\"count\":").append(LARGE_HISTORY).append(",\"build\":[");
+    for (int i = 0; i < LARGE_HISTORY; i++) {
+      sb.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"number\":\"").append(i)
+        .append("\",\"status\":\"").append(status(i))
+        .append("\",\"buildTypeId\":\"SonarBuildStability_Install\",\"href\":\"/httpAuth/app/rest/builds/id:").append(i)
+        .append("\",\"startDate\":\"").append(date(i, 0)).append("\",\"finishDate\":\"").append(date(i, 30)).append("\"}");
+    }
+    return sb.append("]}").toString();
+  }
+
+  private static String status(int i) {
+    return i % 7 == 0 ? "FAILURE" : "SUCCESS";
+  }
+
+  private static String date(int i, int seconds) {
+    return String.format("201311%02dT%02d%02d%02d+0000", 1 + i % 28, i % 24, i % 60, seconds);
+  }
+
+  private static JsonParser json(InputStream in) throws Exception {
+    return JsonStreams.createParser(in);
+  }
+
+  private XMLStreamReader stream(String resource) throws Exception {
+    return XmlStreams.createReader(this.getClass().getResourceAsStream(resource), null);
+  }
+
+  private Document read(String resource) throws Exception {
+    SAXReader reader = new SAXReader();
+    reader.setEncoding("UTF-8");
+    return reader.read(this.getClass().getResourceAsStream(resource));
+  }
 }
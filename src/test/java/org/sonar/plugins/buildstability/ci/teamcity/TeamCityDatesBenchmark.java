@@ -0,0 +1,87 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.teamcity;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Compares {@link TeamCityDates} with the previous way of parsing dates: a new {@link SimpleDateFormat} per call and
+ * the start date parsed twice per build. Not run by the build: start its main method with the test classpath.
+ *
+ * @author Ivan Li
+ */
+public final class TeamCityDatesBenchmark {
+
+  private static final int BUILDS = 100000;
+  private static final int ROUNDS = 10;
+
+  private TeamCityDatesBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    String[] starts = new String[BUILDS];
+    String[] finishes = new String[BUILDS];
+    TimeZone utc = TimeZone.getTimeZone("UTC");
+    long millis = 1385271300000L;
+    for (int i = 0; i < BUILDS; i++) {
+      starts[i] = TeamCityDates.format(millis, utc);
+      finishes[i] = TeamCityDates.format(millis + 90000, utc);
+      millis += 600000;
+    }
+
+    for (int round = 1; round <= ROUNDS; round++) {
+      long start = System.nanoTime();
+      long checksum = simpleDateFormat(starts, finishes);
+      long formatNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      long codecChecksum = codec(starts, finishes);
+      long codecNanos = System.nanoTime() - start;
+
+      if (checksum != codecChecksum) {
+        throw new IllegalStateException("Results differ: " + checksum + " != " + codecChecksum);
+      }
+      System.out.printf("Round %d: SimpleDateFormat %d ns/build, TeamCityDates %d ns/build%n",
+        round, formatNanos / BUILDS, codecNanos / BUILDS);
+    }
+  }
+
+  private static long simpleDateFormat(String[] starts, String[] finishes) throws ParseException {
+    long checksum = 0;
+    for (int i = 0; i < starts.length; i++) {
+      long timestamp = new SimpleDateFormat(TeamCityDates.FORMAT).parse(starts[i]).getTime();
+      long start = new SimpleDateFormat(TeamCityDates.FORMAT).parse(starts[i]).getTime();
+      long finish = new SimpleDateFormat(TeamCityDates.FORMAT).parse(finishes[i]).getTime();
+      checksum += timestamp + (finish - start);
+    }
+    return checksum;
+  }
+
+  private static long codec(String[] starts, String[] finishes) {
+    long checksum = 0;
+    for (int i = 0; i < starts.length; i++) {
+      long start = TeamCityDates.parse(starts[i]);
+      checksum += start + (TeamCityDates.parse(finishes[i]) - start);
+    }
+    return checksum;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Sonar Build TeamCity Plugin
+ * Copyright (C) 2015 Ivan Li
+ * dev@sonar.codehaus.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02
+ */
+package org.sonar.plugins.buildstability.ci.teamcity;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author Ivan Li
+ */
+public class TeamCityDatesTest {
+
+  @Test
+  public void shouldParseLikeSimpleDateFormat() throws Exception {
+    SimpleDateFormat format = new SimpleDateFormat(TeamCityDates.FORMAT);
+    for (String date : new String[] {"20131124T053500+0000", "20131124T053500+0130", "20131124T003500-0500",
+      "20120229T235959+1400", "19700101T000000+0000", "19691231T235959+0000", "21000301T120000-1200"}) {
+      assertThat(TeamCityDates.parseStrict(date)).as(date).isEqualTo(format.parse(date).getTime());
+    }
+  }
+
+  @Test
+  public void shouldRoundTripRandomDates() throws Exception {
+    Random random = new Random(42);
+    SimpleDateFormat format = new SimpleDateFormat(TeamCityDates.FORMAT);
+    for (String id : new String[] {"UTC", "Europe/Paris", "America/St_Johns", "Asia/Kolkata", "Pacific/Kiritimati"}) {
+      TimeZone zone = TimeZone.getTimeZone(id);
+      format.setTimeZone(zone);
+      for (int i = 0; i < 1000; i++) {
+        // From 1970 to 2096, before offsets were rounded to minutes some zones had seconds
+        long millis = Math.abs(random.nextLong() % 4000000000L) * 1000;
+        String formatted = TeamCityDates.format(millis, zone);
+        assertThat(formatted).as(id).isEqualTo(format.format(new Date(millis)));
+        assertThat(TeamCityDates.parse(formatted)).as(formatted).isEqualTo(millis);
+      }
+    }
+  }
+
+  @Test
+  public void shouldRejectMalformedDates() {
+    for (String date : new String[] {"", "20131124", "20131124X053500+0000", "20131324T053500+0000", "20130229T053500+0000",
+      "20131124T245900+0000", "20131124T053500*0000", "20131124T053500+00a0", "20131124T0535001+000"}) {
+      assertThat(TeamCityDates.parseStrict(date)).as(date).isEqualTo(TeamCityDates.INVALID);
+    }
+  }
+
+  @Test
+  public void shouldFallBackToSimpleDateFormat() throws Exception {
+    // Not the exact layout, but still understood by SimpleDateFormat
+    assertThat(TeamCityDates.parse("20131124T053500GMT"))
+      .isEqualTo(new SimpleDateFormat(TeamCityDates.FORMAT).parse("20131124T053500+0000").getTime());
+    assertThat(TeamCityDates.parse("yesterday")).isEqualTo(TeamCityDates.INVALID);
+  }
+}
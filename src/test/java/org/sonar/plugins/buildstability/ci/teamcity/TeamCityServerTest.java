@@ -22,6 +22,10 @@ package org.sonar.plugins.buildstability.ci.teamcity;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.net.URLEncoder;
+import java.util.Date;
+import java.util.TimeZone;
+
 import static org.fest.assertions.Assertions.assertThat;
 
 /**
@@ -39,11 +43,50 @@ public class TeamCityServerTest {
 
   @Test
   public void testLastBuildURL() throws Exception {
-    assertThat(server.getLastBuildUrl()).isEqualTo("http://host:1111/httpAuth/app/rest/buildTypes/id:PROJECT_ID/builds/count:0");
+    assertThat(server.getLastBuildUrl()).isEqualTo("http://host:1111/httpAuth/app/rest/buildTypes/id:PROJECT_ID/builds/"
+      + "personal:false,canceled:false,failedToStart:false,count:1"
+      + "?fields=number,status,startDate,finishDate");
   }
 
   @Test
   public void testGetBuildURLByNumber() throws Exception {
-    assertThat(server.getBuildUrl("1")).isEqualTo("http://host:1111/httpAuth/app/rest/buildTypes/id:PROJECT_ID/builds/number:1");
+    assertThat(server.getBuildUrl("1")).isEqualTo("http://host:1111/httpAuth/app/rest/buildTypes/id:PROJECT_ID/builds/number:1"
+      + "?fields=number,status,startDate,finishDate");
+  }
+
+  @Test
+  public void testGetBuildURLSinceRequestsDetailFields() throws Exception {
+    assertThat(server.getBuildUrlSince(new Date()))
+      .startsWith("http://host:1111/httpAuth/app/rest/buildTypes/id:PROJECT_ID/builds?locator=sinceDate:")
+      .endsWith("&fields=nextHref,build(number,status,startDate,finishDate)");
+  }
+
+  @Test
+  public void testGetBuildSummaryURLSinceRequestsNumbersAndStatuses() throws Exception {
+    Date date = new Date(1385271300000L);
+
+    assertThat(server.getBuildSummaryUrlSince(date))
+      .startsWith(server.getBuildUrlSince(date).substring(0, server.getBuildUrlSince(date).indexOf("&fields=")))
+      .endsWith("&fields=nextHref,build(number,status)");
+  }
+
+  @Test
+  public void testGetBuildURLSinceFiltersBuildsOnServer() throws Exception {
+    Date date = new Date(1385271300000L);
+    String sinceDate = URLEncoder.encode(TeamCityDates.format(date.getTime(), TimeZone.getDefault()), "UTF-8");
+
+    assertThat(server.getBuildUrlSince(date))
+      .contains("?locator=sinceDate:" + sinceDate + ",personal:false,canceled:false,failedToStart:false&");
+  }
+
+  @Test
+  public void testGetPageURL() throws Exception {
+    assertThat(server.getPageUrl("/httpAuth/app/rest/builds?locator=start:100"))
+      .isEqualTo("http://host:1111/httpAuth/app/rest/builds?locator=start:100");
+    assertThat(server.getPageUrl("http://other/app/rest/builds")).isEqualTo("http://other/app/rest/builds");
+
+    server.setHost("http://host:1111/teamcity/");
+    assertThat(server.getPageUrl("/httpAuth/app/rest/builds")).isEqualTo("http://host:1111/teamcity/httpAuth/app/rest/builds");
+    assertThat(server.getPageUrl("/teamcity/httpAuth/app/rest/builds")).isEqualTo("http://host:1111/teamcity/httpAuth/app/rest/builds");
   }
 }
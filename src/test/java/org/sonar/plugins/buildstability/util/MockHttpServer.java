@@ -31,8 +31,16 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 import static org.apache.commons.io.IOUtils.write;
@@ -43,6 +51,11 @@ public final class MockHttpServer {
   private String requestBody;
   private Queue<String> mockResponseData = new LinkedList<String>();
   private Queue<Integer> mockResponseStatus = new LinkedList<Integer>();
+  private Queue<String> mockResponseContentType = new LinkedList<String>();
+  private final Map<String, String> responseHeaders = new ConcurrentHashMap<String, String>();
+  private final List<String> requests = new CopyOnWriteArrayList<String>();
+  private final List<Map<String, String>> requestHeaders = new CopyOnWriteArrayList<Map<String, String>>();
+  private final List<String> requestQueries = new CopyOnWriteArrayList<String>();
 
   public void start() throws Exception {
     // 0 is random available port
@@ -63,8 +76,19 @@ public final class MockHttpServer {
         Request baseRequest = request instanceof Request ? (Request) request : HttpConnection.getCurrentConnection().getRequest();
         setResponseBody(mockResponseData.poll());
         setRequestBody(IOUtils.toString(baseRequest.getInputStream()));
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Enumeration<?> names = request.getHeaderNames(); names.hasMoreElements();) {
+          String name = (String) names.nextElement();
+          headers.put(name.toLowerCase(Locale.ENGLISH), request.getHeader(name));
+        }
+        requestHeaders.add(headers);
+        requestQueries.add(request.getQueryString() == null ? "" : URLDecoder.decode(request.getQueryString(), "UTF-8"));
+        requests.add(request.getMethod() + " " + request.getRequestURI());
+        for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
+          response.setHeader(header.getKey(), header.getValue());
+        }
         response.setStatus(mockResponseStatus.poll());
-        response.setContentType("text/xml;charset=utf-8");
+        response.setContentType(mockResponseContentType.poll());
         write(getResponseBody(), response.getOutputStream());
         baseRequest.setHandled(true);
       }
@@ -103,10 +127,40 @@ public final class MockHttpServer {
   }
 
   public void addMockResponseStatusAndData(int status, String mockResponseData) {
+    addMockResponse(status, "text/xml;charset=utf-8", mockResponseData);
+  }
+
+  public void addMockResponse(int status, String contentType, String mockResponseData) {
     this.mockResponseStatus.add(status);
+    this.mockResponseContentType.add(contentType);
     this.mockResponseData.add(mockResponseData);
   }
 
+  /**
+   * Header sent with every following response.
+   */
+  public void setResponseHeader(String name, String value) {
+    responseHeaders.put(name, value);
+  }
+
+  /**
+   * Method and path of the requests received so far.
+   */
+  public List<String> getRequests() {
+    return requests;
+  }
+
+  public String getRequestHeader(int request, String name) {
+    return requestHeaders.get(request).get(name.toLowerCase(Locale.ENGLISH));
+  }
+
+  /**
+   * Decoded query string of a request, empty when there is none.
+   */
+  public String getRequestQuery(int request) {
+    return requestQueries.get(request);
+  }
+
   public int getPort() {
     return server.getConnectors()[0].getLocalPort();
   }
@@ -21,6 +21,8 @@ package org.sonar.plugins.buildstability.util;
 
 import org.junit.rules.ExternalResource;
 
+import java.util.List;
+
 public final class MockHttpServerInterceptor extends ExternalResource {
 
   private MockHttpServer server;
@@ -44,6 +46,26 @@ public final class MockHttpServerInterceptor extends ExternalResource {
     server.addMockResponseStatusAndData(status, data);
   }
 
+  public void addMockResponse(int status, String contentType, String data) {
+    server.addMockResponse(status, contentType, data);
+  }
+
+  public void setResponseHeader(String name, String value) {
+    server.setResponseHeader(name, value);
+  }
+
+  public List<String> getRequests() {
+    return server.getRequests();
+  }
+
+  public String getRequestHeader(int request, String name) {
+    return server.getRequestHeader(request, name);
+  }
+
+  public String getRequestQuery(int request) {
+    return server.getRequestQuery(request);
+  }
+
   public int getPort() {
     return server.getPort();
   }